@@ -14,11 +14,18 @@ public class AuthenticationMiddleware {
      * is ran before handling each API request (except those necessary to register,
      * log in, or log out a user).
      * 
+     * Requests carrying a signed token are authenticated by verifying the
+     * token, if signed tokens are enabled (`tokenSigner` isn't null); the
+     * others by looking up their session.
      * 
      */
+    private final SessionStore sessions;
+    private final TokenSigner tokenSigner;
     private final DataStoreService store;
 
-    public AuthenticationMiddleware(DataStoreService store) {
+    public AuthenticationMiddleware(SessionStore sessions, TokenSigner tokenSigner, DataStoreService store) {
+        this.sessions = sessions;
+        this.tokenSigner = tokenSigner;
         this.store = store;
     }
 
@@ -33,14 +40,16 @@ public class AuthenticationMiddleware {
             throws NoAuthenticationProvidedException, InvalidTokenException {
         /**
          * Searches the request headers for the `Authorization` header.
-         * If found, looks up the store to see to which user it corresponds,
+         * If found, verifies it or looks up the sessions to see to which user
+         * it corresponds,
          * then returns an AuthenticatedRestRequest containing the original
          * request and a reference to the requesting user.
          * 
          * Throws NoAuthenticationProvidedException if the `Authorization` header
          * isn't present.
          * Throws InvalidTokenException if the value of the `Authorization` header
-         * isn't a valid token or if it isn't present in the store.
+         * isn't a valid token, if it's expired or been revoked, or if its
+         * session doesn't exist or has expired.
          * 
          */
 
@@ -55,7 +64,13 @@ public class AuthenticationMiddleware {
             throw new InvalidTokenException();
         }
 
-        User requestingUser = this.store.getUser(token);
+        User requestingUser;
+        if (this.tokenSigner != null && token.isSigned()) {
+            String username = this.tokenSigner.verify(token.getToken());
+            requestingUser = username == null ? null : this.store.getUser(username);
+        } else {
+            requestingUser = this.sessions.get(token);
+        }
 
         if (requestingUser == null) {
             throw new InvalidTokenException();
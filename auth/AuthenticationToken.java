@@ -2,30 +2,102 @@ package auth;
 
 import java.io.Serializable;
 import java.security.SecureRandom;
+import java.util.Base64;
 
 import com.fasterxml.jackson.annotation.JsonValue;
 
 public class AuthenticationToken implements Serializable {
-    private final String token;
+    /**
+     * Random tokens are 32 bytes from a SecureRandom shared by all threads,
+     * encoded as base64url without padding. Those bytes, decoded once when
+     * the token is built, are what tokens are hashed and compared by: the
+     * hash is computed once and equality takes a constant-time comparison of
+     * four longs, instead of going through the whole string each time.
+     * 
+     * Any other string (e.g. a signed token, or garbage sent by a client)
+     * has no key and is compared as a string; such tokens never match a
+     * random one.
+     * 
+     */
+    private static final int KEY_LENGTH = 32;
+    // (KEY_LENGTH * 8 + 5) / 6 characters
+    private static final int TOKEN_LENGTH = 43;
+    private static final SecureRandom random = new SecureRandom();
 
-    private final int TOKEN_LENGTH = 128;
+    private final String token;
+    // the random bytes of the token, big endian; meaningless if !hasKey
+    private final long key0;
+    private final long key1;
+    private final long key2;
+    private final long key3;
+    private final boolean hasKey;
+    private final int hash;
 
     public AuthenticationToken(String token) {
         this.token = token;
+        long[] key = decodeKey(token);
+        this.hasKey = key != null;
+        if (this.hasKey) {
+            this.key0 = key[0];
+            this.key1 = key[1];
+            this.key2 = key[2];
+            this.key3 = key[3];
+            // the bytes are random: any of them make a good hash
+            this.hash = (int) this.key0;
+        } else {
+            this.key0 = this.key1 = this.key2 = this.key3 = 0;
+            this.hash = token.hashCode();
+        }
     }
 
     public AuthenticationToken() {
-        this.token = this.getRandomToken();
+        this(getRandomToken());
     }
 
-    private String getRandomToken() {
-        final String alphabet = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
-        final SecureRandom rand = new SecureRandom();
-        final StringBuilder stringBuilder = new StringBuilder(this.TOKEN_LENGTH);
-        for (int i = 0; i < this.TOKEN_LENGTH; i++) {
-            stringBuilder.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+    private static String getRandomToken() {
+        byte[] bytes = new byte[KEY_LENGTH];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static long[] decodeKey(String token) {
+        /**
+         * Returns the bytes encoded by a random token as four longs, or null
+         * if the string isn't the canonical encoding of 32 bytes (the 2 bits
+         * left over by the last character must be zero, or more strings
+         * would map to the same key).
+         * 
+         */
+        if (token.length() != TOKEN_LENGTH) {
+            return null;
+        }
+        long[] key = new long[KEY_LENGTH / 8];
+        int bits = 0;
+        int bitCount = 0;
+        int decoded = 0;
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            int value = Base64Url.valueOf(token.charAt(i));
+            if (value == -1) {
+                return null;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                key[decoded >> 3] = (key[decoded >> 3] << 8) | ((bits >> bitCount) & 0xff);
+                decoded++;
+            }
         }
-        return stringBuilder.toString();
+        return (bits & ((1 << bitCount) - 1)) == 0 ? key : null;
+    }
+
+    public boolean isSigned() {
+        /**
+         * Tells tokens issued by a TokenSigner from random ones, which have
+         * no separator.
+         * 
+         */
+        return this.token.indexOf('.') != -1;
     }
 
     public String getToken() {
@@ -34,12 +106,28 @@ public class AuthenticationToken implements Serializable {
 
     @Override
     public boolean equals(Object obj) {
-        return this.token.equals(((AuthenticationToken) obj).getToken());
+        /**
+         * Random tokens are compared in constant time, so that how long a
+         * lookup takes doesn't reveal how much of a guessed token is right.
+         * 
+         */
+        if (!(obj instanceof AuthenticationToken)) {
+            return false;
+        }
+        AuthenticationToken other = (AuthenticationToken) obj;
+        if (this.hasKey != other.hasKey) {
+            return false;
+        }
+        if (!this.hasKey) {
+            return this.token.equals(other.token);
+        }
+        return ((this.key0 ^ other.key0) | (this.key1 ^ other.key1) | (this.key2 ^ other.key2)
+                | (this.key3 ^ other.key3)) == 0;
     }
 
     @Override
     public int hashCode() {
-        return this.token.hashCode();
+        return this.hash;
     }
 
     @Override
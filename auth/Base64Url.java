@@ -0,0 +1,58 @@
+package auth;
+
+import java.util.Arrays;
+
+final class Base64Url {
+    /**
+     * Decoding of unpadded base64url text straight into a caller's buffer,
+     * for the tokens that are decoded on every authenticated request.
+     * 
+     */
+    private static final byte[] VALUES = initValues();
+
+    private Base64Url() {
+    }
+
+    private static byte[] initValues() {
+        byte[] values = new byte[128];
+        Arrays.fill(values, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            values[alphabet.charAt(i)] = (byte) i;
+        }
+        return values;
+    }
+
+    static int valueOf(char c) {
+        /**
+         * Returns the 6 bits the given character encodes, or -1 if it isn't
+         * a base64url character.
+         * 
+         */
+        return c < 128 ? VALUES[c] : -1;
+    }
+
+    static int decode(String src, int from, int to, byte[] dst, int offset) {
+        /**
+         * Decodes unpadded base64url characters into `dst` starting at
+         * `offset`; returns the offset past the last decoded byte, or -1 if
+         * the characters aren't valid base64url.
+         * 
+         */
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = from; i < to; i++) {
+            int value = valueOf(src.charAt(i));
+            if (value == -1) {
+                return -1;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                dst[offset++] = (byte) (bits >> bitCount);
+            }
+        }
+        return offset;
+    }
+}
@@ -1,8 +1,15 @@
 package auth;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -11,24 +18,99 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 @JsonAutoDetect(fieldVisibility = Visibility.ANY, getterVisibility = Visibility.NONE, setterVisibility = Visibility.NONE)
 
 public class Password implements Serializable {
+    /**
+     * A password, hashed with salted PBKDF2-HMAC-SHA256; the salt and the
+     * number of iterations are stored along with the hash, so the cost can
+     * be raised over time without invalidating the passwords already stored.
+     * 
+     * Passwords stored before that only have an unsalted MD5 hash (and no
+     * algorithm): they can still be checked, and `needsRehash()` tells
+     * whoever checks them to replace them with a new hash.
+     * 
+     * Hashing is slow on purpose: PasswordHasher does it off the request
+     * handling threads.
+     * 
+     */
+    public static final int DEFAULT_ITERATIONS = 210000;
+    private static final String PBKDF2 = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 32;
+    private static final SecureRandom random = new SecureRandom();
+
+    // base64 for PBKDF2 hashes, hex for legacy MD5 ones
     private String encryptedPassword;
+    // null for legacy MD5 hashes
+    private String algorithm;
+    private String salt;
+    private int iterations;
 
     @JsonCreator
     public Password() {
     }
 
     public Password(String password) {
+        this(password, DEFAULT_ITERATIONS);
+    }
+
+    public Password(String password, int iterations) {
         if (password == null || password.length() == 0) {
             throw new IllegalArgumentException();
         }
-        this.encryptedPassword = this.encryptPassword(password);
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        this.algorithm = PBKDF2;
+        this.salt = Base64.getEncoder().encodeToString(salt);
+        this.iterations = iterations;
+        this.encryptedPassword = Base64.getEncoder().encodeToString(pbkdf2(password, salt, iterations));
     }
 
     public String getPassword() {
         return this.encryptedPassword;
     }
 
-    private String encryptPassword(String password) {
+    public boolean matches(String password) {
+        /**
+         * Checks the given plaintext password against this one, hashing it
+         * with the same parameters; the hashes are compared in constant time.
+         * 
+         */
+        if (password == null || password.length() == 0) {
+            return false;
+        }
+        byte[] expected;
+        byte[] actual;
+        if (this.algorithm == null) {
+            expected = this.encryptedPassword.getBytes(StandardCharsets.US_ASCII);
+            actual = md5(password).getBytes(StandardCharsets.US_ASCII);
+        } else {
+            expected = Base64.getDecoder().decode(this.encryptedPassword);
+            actual = pbkdf2(password, Base64.getDecoder().decode(this.salt), this.iterations);
+        }
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    public boolean needsRehash(int iterations) {
+        /**
+         * Tells whether this password was hashed with a weaker algorithm, or
+         * fewer iterations, than the ones currently in use.
+         * 
+         */
+        return this.algorithm == null || this.iterations < iterations;
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH * 8);
+        try {
+            return SecretKeyFactory.getInstance(PBKDF2).generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            // every Java platform is required to support it
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String md5(String password) {
         MessageDigest md = null;
         try {
             md = MessageDigest.getInstance("MD5");
@@ -47,8 +129,4 @@ public class Password implements Serializable {
         }
         return sb.toString();
     }
-
-    public boolean equals(Password obj) {
-        return this.getPassword().equals(obj.getPassword());
-    }
 }
@@ -0,0 +1,61 @@
+package auth;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+public class PasswordHasher {
+    /**
+     * Hashes and checks passwords on an executor of its own, so that a burst
+     * of logins (e.g. every client logging back in after a restart) only
+     * saturates that executor, while the threads handling the other requests
+     * stay available.
+     * 
+     * If the executor doesn't accept any more work, the returned futures
+     * complete exceptionally with a RejectedExecutionException.
+     * 
+     * The dummy password is a random one, hashed like new passwords are:
+     * checking a password against it takes as long as checking a real one,
+     * and never succeeds.
+     * 
+     */
+    private final Executor executor;
+    private final int iterations;
+    private final Password dummyPassword;
+
+    public PasswordHasher(Executor executor, int iterations) {
+        this.executor = executor;
+        this.iterations = iterations;
+        this.dummyPassword = new Password(new AuthenticationToken().getToken(), iterations);
+    }
+
+    public Password getDummyPassword() {
+        return this.dummyPassword;
+    }
+
+    public CompletableFuture<Password> hash(String password) {
+        return this.submit(() -> new Password(password, this.iterations));
+    }
+
+    public CompletableFuture<Boolean> matches(Password password, String plaintext) {
+        return this.submit(() -> password.matches(plaintext));
+    }
+
+    public boolean needsRehash(Password password) {
+        return password.needsRehash(this.iterations);
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, this.executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.executor.toString();
+    }
+}
@@ -0,0 +1,204 @@
+package auth;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import entities.User;
+
+public class SessionStore {
+    /**
+     * Keeps track of the users logged in, by their authentication token.
+     * 
+     * Sessions expire after going unused for `idleTimeout` milliseconds, and
+     * in any case `maxLifetime` milliseconds after login; users can have at
+     * most `maxSessionsPerUser` sessions, and there can be at most
+     * `maxSessions` in total: past these limits, logging in evicts the oldest
+     * session of the user, or the oldest overall. A limit of 0 disables it.
+     * 
+     * Looking up a session is lock-free, and expired sessions are never
+     * returned even if they're still in the store. They're removed when
+     * they're looked up, or by `sweep()`, which only visits expired sessions
+     * plus, at most once per idle timeout, the sessions still in use.
+     * 
+     */
+    // how far apart two uses of a session must be for the second one to be
+    // recorded; saves a write to shared memory on most authenticated requests
+    private static final long LAST_USE_GRANULARITY = 1000;
+
+    private final long idleTimeout;
+    private final long maxLifetime;
+    private final int maxSessionsPerUser;
+    private final int maxSessions;
+
+    private final ConcurrentHashMap<AuthenticationToken, Session> sessions = new ConcurrentHashMap<>();
+    // the following are guarded by the store's lock
+    // in order of creation, which is also the order they reach their lifetime in
+    private final LinkedHashSet<Session> sessionsByAge = new LinkedHashSet<>();
+    private final Map<String, LinkedHashSet<Session>> userSessions = new HashMap<>();
+    // by the time each session would become idle, as of the last time it was checked
+    private final PriorityQueue<Session> idleDeadlines = new PriorityQueue<>(
+            Comparator.comparingLong(session -> session.idleDeadline));
+
+    private static class Session {
+        private final AuthenticationToken token;
+        private final User user;
+        private final long createdAt;
+        private volatile long lastUsedAt;
+        private long idleDeadline;
+        private boolean removed = false;
+
+        private Session(AuthenticationToken token, User user, long now) {
+            this.token = token;
+            this.user = user;
+            this.createdAt = now;
+            this.lastUsedAt = now;
+        }
+    }
+
+    public SessionStore(long idleTimeout, long maxLifetime, int maxSessionsPerUser, int maxSessions) {
+        this.idleTimeout = idleTimeout;
+        this.maxLifetime = maxLifetime;
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.maxSessions = maxSessions;
+    }
+
+    public void add(AuthenticationToken token, User user) {
+        long now = System.currentTimeMillis();
+        Session session = new Session(token, user, now);
+        synchronized (this) {
+            LinkedHashSet<Session> ofUser = this.userSessions.get(user.getUsername());
+            if (this.maxSessionsPerUser > 0 && ofUser != null && ofUser.size() >= this.maxSessionsPerUser) {
+                this.removeSession(ofUser.iterator().next());
+            }
+            if (this.maxSessions > 0 && this.sessionsByAge.size() >= this.maxSessions) {
+                this.removeSession(this.sessionsByAge.iterator().next());
+            }
+            this.sessions.put(token, session);
+            this.sessionsByAge.add(session);
+            this.userSessions.computeIfAbsent(user.getUsername(), __ -> new LinkedHashSet<>()).add(session);
+            if (this.idleTimeout > 0) {
+                session.idleDeadline = now + this.idleTimeout;
+                this.idleDeadlines.add(session);
+            }
+        }
+    }
+
+    public User get(AuthenticationToken token) {
+        /**
+         * Returns the user the given token belongs to, or null if there's no
+         * session for it or the session has expired; counts as a use of the
+         * session.
+         * 
+         */
+        Session session = this.sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (this.isExpired(session, now)) {
+            synchronized (this) {
+                this.removeSession(session);
+            }
+            return null;
+        }
+        if (now - session.lastUsedAt >= LAST_USE_GRANULARITY) {
+            session.lastUsedAt = now;
+        }
+        return session.user;
+    }
+
+    public synchronized boolean remove(AuthenticationToken token, String username) {
+        /**
+         * Ends the session of the given token, provided it belongs to the
+         * given user; returns false otherwise.
+         * 
+         */
+        Session session = this.sessions.get(token);
+        if (session == null || !session.user.getUsername().equals(username)) {
+            return false;
+        }
+        this.removeSession(session);
+        return true;
+    }
+
+    public synchronized int sweep() {
+        /**
+         * Removes the expired sessions; returns how many were removed.
+         * 
+         */
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        if (this.maxLifetime > 0) {
+            while (!this.sessionsByAge.isEmpty()) {
+                Session oldest = this.sessionsByAge.iterator().next();
+                if (now - oldest.createdAt < this.maxLifetime) {
+                    break;
+                }
+                this.removeSession(oldest);
+                removed++;
+            }
+        }
+        if (this.idleTimeout > 0) {
+            while (!this.idleDeadlines.isEmpty() && this.idleDeadlines.peek().idleDeadline <= now) {
+                Session session = this.idleDeadlines.poll();
+                if (session.removed) {
+                    // logged out or evicted in the meantime
+                    continue;
+                }
+                long idleDeadline = session.lastUsedAt + this.idleTimeout;
+                if (idleDeadline <= now) {
+                    this.removeSession(session);
+                    removed++;
+                } else {
+                    // used since it was queued: check it again when it could next expire
+                    session.idleDeadline = idleDeadline;
+                    this.idleDeadlines.add(session);
+                }
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return this.sessions.size();
+    }
+
+    private boolean isExpired(Session session, long now) {
+        return (this.maxLifetime > 0 && now - session.createdAt >= this.maxLifetime)
+                || (this.idleTimeout > 0 && now - session.lastUsedAt >= this.idleTimeout);
+    }
+
+    private void removeSession(Session session) {
+        /**
+         * Must be called holding the store's lock; sessions are left in
+         * `idleDeadlines` and skipped when they come out of it, as removing
+         * them would take a linear scan of the queue. The scan is only done
+         * once removed sessions make up most of the queue, which keeps its
+         * cost amortized constant even when sessions are evicted in bulk.
+         * 
+         */
+        if (session.removed) {
+            return;
+        }
+        session.removed = true;
+        this.sessions.remove(session.token, session);
+        this.sessionsByAge.remove(session);
+        LinkedHashSet<Session> ofUser = this.userSessions.get(session.user.getUsername());
+        ofUser.remove(session);
+        if (ofUser.isEmpty()) {
+            this.userSessions.remove(session.user.getUsername());
+        }
+        if (this.idleDeadlines.size() > 2 * this.sessionsByAge.size() + 64) {
+            this.idleDeadlines.removeIf(queued -> queued.removed);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "sessions: active=" + this.size();
+    }
+}
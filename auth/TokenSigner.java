@@ -0,0 +1,239 @@
+package auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+public class TokenSigner {
+    /**
+     * Issues and verifies self-validating authentication tokens: a token
+     * carries the username, issue time and expiry time of the session,
+     * signed with HMAC-SHA256 under a key shared by all the servers that are
+     * to accept it, so that any of them can authenticate a request without
+     * looking up a session.
+     * 
+     * Tokens are `<payload>.<signature>`, both encoded as base64url without
+     * padding; the payload is the issue and expiry times (milliseconds since
+     * the epoch, 8 bytes each, big endian) followed by the UTF-8 username.
+     * 
+     * Logging out revokes a token until it expires. Revocations are kept in
+     * memory by the server the client logs out from: with more servers, a
+     * revoked token is still accepted by the others until it expires, so
+     * signed tokens are best given a short lifetime.
+     * 
+     * Verifying a token only allocates the username: tokens are decoded
+     * into a buffer and signed with a Mac instance taken from a bounded pool
+     * of them, rather than kept by each thread, as handlers may run on a new
+     * virtual thread each time.
+     * 
+     * Tokens must have a limited lifetime, or revoked ones would have to be
+     * remembered forever.
+     * 
+     */
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SIGNATURE_LENGTH = 32;
+    private static final int TIMES_LENGTH = 16;
+    private static final char SEPARATOR = '.';
+    private static final int MAX_POOLED_CONTEXTS = Math.max(Runtime.getRuntime().availableProcessors() * 2, 4);
+
+    private final SecretKeySpec key;
+    private final long lifetime;
+    private final BlockingQueue<Context> contexts = new ArrayBlockingQueue<>(MAX_POOLED_CONTEXTS);
+    // expiry time of the revoked tokens, by the first 8 bytes of their signature
+    private final ConcurrentHashMap<Long, Long> revokedTokens = new ConcurrentHashMap<>();
+
+    private static class Context {
+        // what's needed to verify a token: a Mac initialized with the key,
+        // and a buffer to decode the token into
+        final Mac mac;
+        byte[] buffer = new byte[256];
+
+        Context(Mac mac) {
+            this.mac = mac;
+        }
+    }
+
+    public TokenSigner(byte[] key, long lifetime) {
+        if (lifetime <= 0) {
+            throw new IllegalArgumentException("Signed tokens need a positive lifetime");
+        }
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.lifetime = lifetime;
+        // fail right away on an unusable key rather than on the first login
+        this.releaseContext(this.acquireContext());
+    }
+
+    private Context acquireContext() {
+        Context context = this.contexts.poll();
+        if (context != null) {
+            return context;
+        }
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(this.key);
+            return new Context(mac);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void releaseContext(Context context) {
+        // contexts that don't fit in the pool are left to the GC
+        this.contexts.offer(context);
+    }
+
+    public AuthenticationToken sign(String username) {
+        /**
+         * Returns a new token for the given user, valid for the configured
+         * lifetime from now.
+         * 
+         */
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[TIMES_LENGTH + name.length];
+        long issuedAt = System.currentTimeMillis();
+        writeLong(payload, 0, issuedAt);
+        writeLong(payload, 8, issuedAt + this.lifetime);
+        System.arraycopy(name, 0, payload, TIMES_LENGTH, name.length);
+
+        byte[] signature;
+        Context context = this.acquireContext();
+        try {
+            signature = context.mac.doFinal(payload);
+        } finally {
+            this.releaseContext(context);
+        }
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return new AuthenticationToken(encoder.encodeToString(payload) + SEPARATOR
+                + encoder.encodeToString(signature));
+    }
+
+    public String verify(String token) {
+        /**
+         * Returns the username the given token was issued to, or null if the
+         * token is malformed, its signature doesn't match, or it has expired
+         * or been revoked.
+         * 
+         */
+        Context context = this.acquireContext();
+        try {
+            return this.verify(token, context);
+        } finally {
+            this.releaseContext(context);
+        }
+    }
+
+    private String verify(String token, Context context) {
+        int payloadLength = this.decode(token, context);
+        if (payloadLength == -1) {
+            return null;
+        }
+        byte[] buffer = context.buffer;
+        if (System.currentTimeMillis() >= readLong(buffer, 8)) {
+            return null;
+        }
+        if (!this.revokedTokens.isEmpty()
+                && this.revokedTokens.containsKey(readLong(buffer, payloadLength))) {
+            return null;
+        }
+        return new String(buffer, TIMES_LENGTH, payloadLength - TIMES_LENGTH, StandardCharsets.UTF_8);
+    }
+
+    public boolean revoke(String token, String username) {
+        /**
+         * Revokes the given token until it expires, provided it's valid and
+         * was issued to the given user; returns false otherwise.
+         * 
+         */
+        Context context = this.acquireContext();
+        try {
+            if (!username.equals(this.verify(token, context))) {
+                return false;
+            }
+            int payloadLength = this.decode(token, context);
+            byte[] buffer = context.buffer;
+            this.revokedTokens.put(readLong(buffer, payloadLength), readLong(buffer, 8));
+            return true;
+        } finally {
+            this.releaseContext(context);
+        }
+    }
+
+    public void sweep() {
+        /**
+         * Forgets the revoked tokens that have expired in the meantime, as
+         * they'd be rejected anyway.
+         * 
+         */
+        long now = System.currentTimeMillis();
+        this.revokedTokens.values().removeIf(expiresAt -> expiresAt <= now);
+    }
+
+    private int decode(String token, Context context) {
+        /**
+         * Decodes the token into the context's buffer and checks its
+         * signature: the buffer then holds the payload, followed by its
+         * signature. Returns the length of the payload, or -1 if the token
+         * is malformed or its signature doesn't match.
+         * 
+         */
+        int separator = token.indexOf(SEPARATOR);
+        if (separator == -1 || token.length() - separator - 1 != (SIGNATURE_LENGTH * 4 + 2) / 3) {
+            return -1;
+        }
+        int payloadLength = separator * 3 / 4;
+        if (payloadLength <= TIMES_LENGTH) {
+            return -1;
+        }
+        byte[] buffer = context.buffer;
+        if (buffer.length < payloadLength + 2 * SIGNATURE_LENGTH) {
+            // grows to fit the longest username seen by the context
+            buffer = new byte[payloadLength + 2 * SIGNATURE_LENGTH];
+            context.buffer = buffer;
+        }
+        int signatureStart = payloadLength;
+        int expectedStart = signatureStart + SIGNATURE_LENGTH;
+        if (Base64Url.decode(token, 0, separator, buffer, 0) != payloadLength
+                || Base64Url.decode(token, separator + 1, token.length(), buffer, signatureStart) != expectedStart) {
+            return -1;
+        }
+
+        Mac mac = context.mac;
+        mac.update(buffer, 0, payloadLength);
+        try {
+            mac.doFinal(buffer, expectedStart);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        // constant time comparison, so that timing doesn't reveal how much
+        // of a forged signature is right
+        int difference = 0;
+        for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+            difference |= buffer[signatureStart + i] ^ buffer[expectedStart + i];
+        }
+        return difference == 0 ? payloadLength : -1;
+    }
+
+    private static void writeLong(byte[] dst, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            dst[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long readLong(byte[] src, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (src[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+}
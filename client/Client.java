@@ -1,22 +1,24 @@
 package client;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
 import java.net.NetworkInterface;
 import java.net.SocketAddress;
+import java.net.URLEncoder;
+import java.net.http.WebSocket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -25,6 +27,9 @@ import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import auth.AuthenticationToken;
 import entities.Comment;
@@ -35,7 +40,6 @@ import exceptions.InvalidClientArgumentsException;
 import protocol.HttpMethod;
 import protocol.RestRequest;
 import protocol.RestResponse;
-import services.FollowerNotificationServiceInterface;
 import services.Serializer;
 import services.ServerConfig;
 import services.UserRegistrationInterface;
@@ -45,15 +49,15 @@ public class Client implements IClient {
     private final int BUF_CAPACITY = 4096 * 4096;
     private final ServerConfig config;
     private UserRegistrationInterface registrationService = null;
-    private FollowerNotificationServiceInterface notificationService = null;
     private final Set<User> localFollowers = new HashSet<>();
     private MulticastSocket multicastSkt = null;
     private Thread multicastThread = null;
-    private ClientFollowerNotificationService clientNotificationService = null;
+    private WebSocket followerSocket = null;
 
     private Map<String, String> requestHeaders = new HashMap<>();
 
     private SocketChannel sktChan;
+    private ByteBuffer responseBuf = ByteBuffer.allocate(4096 * 4);
 
     private final Map<String, String> clientMessages = initMsgsMap();
     private final Map<String, Map<Integer, String>> outcomeMessages = initOutcomesMap();
@@ -85,6 +89,7 @@ public class Client implements IClient {
                 "You can type 'exit' at any time to exit the program.\n");
         map.put("btc_wallet", "Your wallet balance converted to BitCoins is: btc ");
         map.put("waiting_for_command", "Your command: ");
+        map.put("next_page", "Show more? (y/n) ");
         map.put("post_constraint_failed",
                 "Titles can only be 20 characters long and the content of the" +
                         "post can be up to 500 characters long.");
@@ -134,6 +139,8 @@ public class Client implements IClient {
 
     public Client(File config) throws IOException {
         this.config = new Serializer<ServerConfig>().parse(config, ServerConfig.class);
+        // large responses (feeds, lists of users) are worth compressing
+        this.requestHeaders.put("Accept-Encoding", "gzip, deflate");
     }
 
     public void start() {
@@ -141,9 +148,6 @@ public class Client implements IClient {
             Registry registry = LocateRegistry.getRegistry(this.config.getRegistryPort());
             // get RMI user registration service
             this.registrationService = (UserRegistrationInterface) registry.lookup("USER-REGISTRATION-SERVICE");
-            // get RMI notification callback service
-            this.notificationService = (FollowerNotificationServiceInterface) registry
-                    .lookup("FOLLOWER-NOTIFICATION-SERVICE");
         } catch (RemoteException | NotBoundException e) {
             System.out.println(this.clientMessages.get("unable_connect"));
             System.exit(1);
@@ -196,8 +200,8 @@ public class Client implements IClient {
                             User[] users;
                             switch (parameter) {
                                 case "users":
-                                    users = this.listUsers();
-                                    break;
+                                    this.printPages(this::listUsers, new UserRenderer(), scanner);
+                                    continue;
                                 case "followers":
                                     users = this.listFollowers();
                                     break;
@@ -222,9 +226,8 @@ public class Client implements IClient {
                             renderedResponseData = this.clientMessages.get("unfollow_ok") + username;
                             break;
                         case "blog":
-                            Post[] blog = this.viewBlog();
-                            renderedResponseData = new PostRenderer().render(blog);
-                            break;
+                            this.printPages(this::viewBlog, new PostRenderer(), scanner);
+                            continue;
                         case "post":
                             title = this.getStringArgument(commandArguments, 0, true);
                             content = this.getStringArgument(commandArguments, title.split(" ").length, true);
@@ -236,9 +239,8 @@ public class Client implements IClient {
                             parameter = instructionLineTokens[1];
                             switch (parameter) {
                                 case "feed":
-                                    Post[] feed = this.showFeed();
-                                    renderedResponseData = new PostRenderer().render(feed);
-                                    break;
+                                    this.printPages(this::showFeed, new PostRenderer(), scanner);
+                                    continue;
                                 case "post":
                                     postId = this.getUUIDArgument(commandArguments, 1);
                                     Post post = this.showPost(postId);
@@ -308,6 +310,11 @@ public class Client implements IClient {
     }
 
     private void discardLoggedInServices() {
+        if (this.multicastSkt != null) {
+            // closing the socket is what wakes up the thread blocked on it:
+            // `receive()` doesn't respond to interrupts
+            this.multicastSkt.close();
+        }
         if (this.multicastThread != null) {
             this.multicastThread.interrupt();
             try {
@@ -317,16 +324,12 @@ public class Client implements IClient {
             }
             this.multicastThread = null;
         }
-        if (this.multicastSkt != null) {
-            this.multicastSkt.close();
+        if (this.followerSocket != null) {
+            this.followerSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+            this.followerSocket = null;
         }
-        if (this.clientNotificationService != null) {
-            try {
-                UnicastRemoteObject.unexportObject(this.clientNotificationService, true);
-            } catch (NoSuchObjectException e) {
-                System.exit(1);
-            }
-            this.clientNotificationService = null;
+        synchronized (this.localFollowers) {
+            this.localFollowers.clear();
         }
     }
 
@@ -401,15 +404,131 @@ public class Client implements IClient {
         }
     }
 
-    private RestResponse receiveResponse(RestRequest request) throws IOException, ClientOperationFailedException {
+    private interface PageSource<E> {
+        Page<E> getPage(String cursor) throws IOException, ClientOperationFailedException;
+    }
+
+    private <E> void printPages(PageSource<E> source, IRenderer<E> renderer, Scanner scanner)
+            throws IOException, ClientOperationFailedException {
+        /**
+         * Goes through a list one page at a time, printing each page as soon
+         * as it's received; the next page is only requested if the user asks
+         * for it.
+         * 
+         */
+        Page<E> page = source.getPage(null);
+        System.out.println(renderer.render(page.getItems()));
+        while (page.getNextCursor() != null) {
+            System.out.print(this.clientMessages.get("next_page"));
+            if (!scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                break;
+            }
+            page = source.getPage(page.getNextCursor());
+            if (page.getItems().length > 0) {
+                System.out.println(renderer.render(page.getItems()));
+            }
+        }
+    }
+
+    private static String getPagePath(String path, String cursor) {
+        if (cursor == null) {
+            return path;
+        }
+        return path + (path.indexOf('?') == -1 ? "?" : "&") + "cursor="
+                + URLEncoder.encode(cursor, StandardCharsets.UTF_8);
+    }
+
+    private String exchange(RestRequest request) throws IOException {
         // write request to socket
-        this.sktChan.write(ByteBuffer.wrap(request.toString().getBytes()));
+        this.sktChan.write(ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.UTF_8)));
+
+        // read until the whole response, framed by its `content-length`
+        // header, has been received
+        this.responseBuf.clear();
+        int headersLength;
+        while ((headersLength = this.getHeadersLength(this.responseBuf)) == -1
+                || this.responseBuf.position() < headersLength
+                        + this.getContentLength(this.responseBuf, headersLength)) {
+            if (!this.responseBuf.hasRemaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(this.responseBuf.capacity() * 2);
+                this.responseBuf.flip();
+                this.responseBuf = grown.put(this.responseBuf);
+            }
+            if (this.sktChan.read(this.responseBuf) == -1) {
+                throw new IOException("Connection closed by server");
+            }
+        }
+
+        String headers = new String(this.responseBuf.array(), 0, headersLength, StandardCharsets.UTF_8);
+        byte[] body = Arrays.copyOfRange(this.responseBuf.array(), headersLength,
+                headersLength + this.getContentLength(this.responseBuf, headersLength));
+
+        // decompress the body if the server compressed it
+        String contentEncoding = this.getHeaderValue(headers, "content-encoding");
+        if (contentEncoding != null) {
+            InputStream in = new ByteArrayInputStream(body);
+            switch (contentEncoding.toLowerCase()) {
+                case "gzip":
+                    in = new GZIPInputStream(in);
+                    break;
+                case "deflate":
+                    in = new InflaterInputStream(in);
+                    break;
+                default:
+                    throw new IOException("Unsupported content encoding " + contentEncoding);
+            }
+            try (InputStream decoded = in) {
+                body = decoded.readAllBytes();
+            }
+        }
+        return headers + new String(body, StandardCharsets.UTF_8);
+    }
 
-        ByteBuffer buf = ByteBuffer.allocate(this.BUF_CAPACITY);
-        this.sktChan.read(buf);
-        buf.flip();
+    private int getHeadersLength(ByteBuffer buf) {
+        /**
+         * Returns the length in bytes of the status line and headers of the
+         * response at the beginning of the buffer (in write mode), including
+         * the empty line that ends them, or -1 if they haven't been completely
+         * received.
+         * 
+         */
+        byte[] bytes = buf.array();
+        for (int i = 0; i + 3 < buf.position(); i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
 
-        String responseString = StandardCharsets.UTF_8.decode(buf).toString();
+    private int getContentLength(ByteBuffer buf, int headersLength) {
+        String contentLength = this.getHeaderValue(
+                new String(buf.array(), 0, headersLength, StandardCharsets.UTF_8), "content-length");
+        return contentLength == null ? 0 : Integer.parseInt(contentLength);
+    }
+
+    private String getHeaderValue(String headers, String name) {
+        for (String header : headers.split("\r\n")) {
+            String[] tokens = header.split(": ");
+            if (tokens.length == 2 && tokens[0].equalsIgnoreCase(name)) {
+                return tokens[1].trim();
+            }
+        }
+        return null;
+    }
+
+    private RestResponse receiveResponse(RestRequest request) throws IOException, ClientOperationFailedException {
+        String responseString;
+        try {
+            responseString = this.exchange(request);
+        } catch (IOException e) {
+            // the server closes connections that stay idle for too long: open
+            // a new one and try again, since the request never got to the server
+            this.sktChan.close();
+            this.sktChan = SocketChannel
+                    .open(new InetSocketAddress(this.config.getServerAddr(), this.config.getTcpPort()));
+            responseString = this.exchange(request);
+        }
         // construct response from string read from socket
         RestResponse response = RestResponse.fromString(responseString);
 
@@ -475,11 +594,14 @@ public class Client implements IClient {
         // include received token in future requests to server
         this.requestHeaders.put("Authorization", "Bearer " + authToken.getToken());
 
-        // subscribe to follower updates service
-        this.clientNotificationService = new ClientFollowerNotificationService(this.localFollowers);
-        IClientFollowerNotificationService callbackStub = (IClientFollowerNotificationService) UnicastRemoteObject
-                .exportObject(this.clientNotificationService, 0);
-        this.notificationService.subscribe(callbackStub, authToken);
+        // subscribe to follower updates
+        try {
+            this.followerSocket = WebSocketFollowerListener.connect(this.config.getServerAddr().getHostAddress(),
+                    this.config.getTcpPort(), this.requestHeaders.get("Authorization"),
+                    new ClientFollowerNotificationService(this.localFollowers));
+        } catch (CompletionException e) {
+            throw new IOException(e.getCause());
+        }
 
         // join multicast group
         InetAddress multicastAddr = InetAddress.getByName(response.getBody().split("\n")[1].substring(1));
@@ -500,6 +622,9 @@ public class Client implements IClient {
                 try {
                     this.multicastSkt.receive(pkt);
                 } catch (IOException e) {
+                    if (this.multicastSkt.isClosed()) {
+                        break;
+                    }
                     e.printStackTrace();
                 }
                 // assert new String(pkt.getData()).equals("WALLETS_UPDATED");
@@ -516,17 +641,19 @@ public class Client implements IClient {
     }
 
     @Override
-    public User[] listUsers() throws IOException, ClientOperationFailedException {
-        RestResponse response = this
-                .receiveResponse(new RestRequest("/users", HttpMethod.GET, this.getRequestHeaders()));
+    public Page<User> listUsers(String cursor) throws IOException, ClientOperationFailedException {
+        RestResponse response = this.receiveResponse(
+                new RestRequest(getPagePath("/users", cursor), HttpMethod.GET, this.getRequestHeaders()));
 
         User[] data = new Serializer<User[]>().parse(response.getBody(), User[].class);
-        return data;
+        return new Page<User>(data, response.getHeader("X-Next-Cursor"));
     }
 
     @Override
     public User[] listFollowers() {
-        return (User[]) this.localFollowers.toArray(new User[0]);
+        synchronized (this.localFollowers) {
+            return (User[]) this.localFollowers.toArray(new User[0]);
+        }
     }
 
     @Override
@@ -550,12 +677,13 @@ public class Client implements IClient {
     }
 
     @Override
-    public Post[] viewBlog() throws IOException, ClientOperationFailedException {
-        RestResponse response = this
-                .receiveResponse(new RestRequest("/posts/my-posts", HttpMethod.GET, this.getRequestHeaders()));
+    public Page<Post> viewBlog(String cursor) throws IOException, ClientOperationFailedException {
+        // posts are only listed by title, so their comments aren't needed
+        RestResponse response = this.receiveResponse(new RestRequest(
+                getPagePath("/posts/my-posts?summary=true", cursor), HttpMethod.GET, this.getRequestHeaders()));
 
         Post[] data = new Serializer<Post[]>().parse(response.getBody(), Post[].class);
-        return data;
+        return new Page<Post>(data, response.getHeader("X-Next-Cursor"));
     }
 
     @Override
@@ -574,12 +702,12 @@ public class Client implements IClient {
     }
 
     @Override
-    public Post[] showFeed() throws IOException, ClientOperationFailedException {
-        RestResponse response = this
-                .receiveResponse(new RestRequest("/posts", HttpMethod.GET, this.getRequestHeaders()));
+    public Page<Post> showFeed(String cursor) throws IOException, ClientOperationFailedException {
+        RestResponse response = this.receiveResponse(new RestRequest(getPagePath("/posts?summary=true", cursor),
+                HttpMethod.GET, this.getRequestHeaders()));
 
         Post[] data = new Serializer<Post[]>().parse(response.getBody(), Post[].class);
-        return data;
+        return new Page<Post>(data, response.getHeader("X-Next-Cursor"));
     }
 
     @Override
@@ -1,13 +1,10 @@
 package client;
 
-import java.rmi.RemoteException;
-import java.rmi.server.RemoteObject;
-import java.util.HashSet;
 import java.util.Set;
 
 import entities.User;
 
-public class ClientFollowerNotificationService extends RemoteObject implements IClientFollowerNotificationService {
+public class ClientFollowerNotificationService implements IClientFollowerNotificationService {
     private final Set<User> localRef;
 
     public ClientFollowerNotificationService(Set<User> localRef) {
@@ -15,9 +12,12 @@ public class ClientFollowerNotificationService extends RemoteObject implements I
     }
 
     @Override
-    public void updateFollowerList(Set<User> followers) throws RemoteException {
-        this.localRef.clear();
-        this.localRef.addAll(followers);
+    public void updateFollowerList(Set<User> followers) {
+        // updates come from the WebSocket's thread
+        synchronized (this.localRef) {
+            this.localRef.clear();
+            this.localRef.addAll(followers);
+        }
     }
 
 }
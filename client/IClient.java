@@ -13,7 +13,7 @@ public interface IClient {
 
     void logout(String username) throws IOException, ClientOperationFailedException;
 
-    User[] listUsers() throws IOException, ClientOperationFailedException;
+    Page<User> listUsers(String cursor) throws IOException, ClientOperationFailedException;
 
     User[] listFollowers();
 
@@ -23,11 +23,11 @@ public interface IClient {
 
     void unfollowUser(String username) throws IOException, ClientOperationFailedException;
 
-    Post[] viewBlog() throws IOException, ClientOperationFailedException;
+    Page<Post> viewBlog(String cursor) throws IOException, ClientOperationFailedException;
 
     Post createPost(String title, String content) throws IOException, ClientOperationFailedException;
 
-    Post[] showFeed() throws IOException, ClientOperationFailedException;
+    Page<Post> showFeed(String cursor) throws IOException, ClientOperationFailedException;
 
     Post showPost(UUID postId) throws IOException, ClientOperationFailedException;
 
@@ -0,0 +1,24 @@
+package client;
+
+public class Page<E> {
+    /**
+     * A page of a list sent by the server, along with the cursor to ask for
+     * the one after it, which is null if this is the last page.
+     * 
+     */
+    private final E[] items;
+    private final String nextCursor;
+
+    public Page(E[] items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public E[] getItems() {
+        return this.items;
+    }
+
+    public String getNextCursor() {
+        return this.nextCursor;
+    }
+}
@@ -0,0 +1,89 @@
+package client;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import entities.User;
+
+public class WebSocketFollowerListener implements WebSocket.Listener {
+    /**
+     * Keeps the local follower list of a logged in user up to date, through a
+     * WebSocket opened with the server on `/users/followers`: the server sends
+     * the current list as soon as the socket is open, then the updated list
+     * every time someone starts or stops following the user.
+     * 
+     * Each message is an object holding the event type and its data:
+     * `{"type": "followers", "data": [...]}`.
+     * 
+     */
+    private static final String FOLLOWERS_UPDATE = "followers";
+    private static final String FOLLOWERS_PATH = "/users/followers";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final IClientFollowerNotificationService notificationService;
+    // text messages can be delivered in several parts
+    private final StringBuilder message = new StringBuilder();
+
+    public WebSocketFollowerListener(IClientFollowerNotificationService notificationService) {
+        this.notificationService = notificationService;
+    }
+
+    public static WebSocket connect(String host, int port, String authorization,
+            IClientFollowerNotificationService notificationService) {
+        /**
+         * Opens the WebSocket for the user the given `Authorization` header
+         * value belongs to, waiting for the handshake to complete.
+         * 
+         */
+        return HttpClient.newHttpClient()
+                .newWebSocketBuilder()
+                .header("Authorization", authorization)
+                .buildAsync(URI.create("ws://" + host + ":" + port + FOLLOWERS_PATH),
+                        new WebSocketFollowerListener(notificationService))
+                .join();
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        this.message.append(data);
+        if (last) {
+            this.onMessage(this.message.toString());
+            this.message.setLength(0);
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    private void onMessage(String message) {
+        try {
+            JsonNode event = this.mapper.readTree(message);
+            if (!FOLLOWERS_UPDATE.equals(event.path("type").asText())) {
+                return;
+            }
+            Set<User> followers = this.mapper.convertValue(event.get("data"), new TypeReference<Set<User>>() {
+            });
+            this.notificationService.updateFollowerList(followers);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        error.printStackTrace();
+    }
+}
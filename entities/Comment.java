@@ -1,14 +1,17 @@
 package entities;
 
 import java.util.Date;
+import java.util.UUID;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Comment implements Comparable<Comment> {
+    private final UUID id;
     private String authorUsername;
     private final String content;
-    private final Date timestamp = new Date();
+    private final Date timestamp;
 
     @JsonCreator
     public Comment(@JsonProperty("authorUsername") String username, @JsonProperty("content") String content) {
@@ -18,6 +21,8 @@ public class Comment implements Comparable<Comment> {
         // }
         this.authorUsername = username;
         this.content = content;
+        this.id = UUID.randomUUID();
+        this.timestamp = new Date();
     }
 
     public Comment(@JsonProperty("content") String content) {
@@ -25,6 +30,27 @@ public class Comment implements Comparable<Comment> {
             throw new IllegalArgumentException();
         }
         this.content = content;
+        this.id = UUID.randomUUID();
+        this.timestamp = new Date();
+    }
+
+    private Comment(PageCursor cursor) {
+        this.content = "";
+        this.id = cursor.getId();
+        this.timestamp = cursor.getTimestamp();
+    }
+
+    public static Comment keyOf(PageCursor cursor) {
+        /**
+         * Returns a comment that sorts exactly where the one the cursor
+         * points to does, to look it up in sorted sets of comments.
+         * 
+         */
+        return new Comment(cursor);
+    }
+
+    public UUID getId() {
+        return this.id;
     }
 
     public void setUser(String username) {
@@ -43,8 +69,16 @@ public class Comment implements Comparable<Comment> {
         return this.timestamp;
     }
 
+    @JsonIgnore
+    public PageCursor getCursor() {
+        return new PageCursor(this.timestamp, this.id);
+    }
+
     @Override
     public int compareTo(Comment o) {
-        return this.timestamp.compareTo(o.getTimestamp());
+        // comments posted in the same millisecond must not be taken for the
+        // same comment by sorted sets
+        int byTimestamp = this.timestamp.compareTo(o.getTimestamp());
+        return byTimestamp != 0 ? byTimestamp : this.id.compareTo(o.getId());
     }
 }
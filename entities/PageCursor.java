@@ -0,0 +1,52 @@
+package entities;
+
+import java.util.Date;
+import java.util.UUID;
+
+public class PageCursor {
+    /**
+     * Points to an item (a post or a comment) in the order they're listed
+     * in, i.e. by timestamp and then by id: a page continues right after the
+     * item its cursor points to, so its contents don't shift while items are
+     * added or removed before it, and the item can even have been deleted in
+     * the meantime.
+     * 
+     * Cursors are sent to clients as "<timestamp>_<id>", the timestamp being
+     * in milliseconds.
+     * 
+     */
+    private final Date timestamp;
+    private final UUID id;
+
+    public PageCursor(Date timestamp, UUID id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    public static PageCursor parse(String cursor) {
+        /**
+         * Parses a cursor sent by a client; throws IllegalArgumentException if
+         * the string isn't a valid cursor.
+         * 
+         */
+        int separator = cursor.indexOf('_');
+        if (separator == -1) {
+            throw new IllegalArgumentException();
+        }
+        return new PageCursor(new Date(Long.parseLong(cursor.substring(0, separator))),
+                UUID.fromString(cursor.substring(separator + 1)));
+    }
+
+    public Date getTimestamp() {
+        return this.timestamp;
+    }
+
+    public UUID getId() {
+        return this.id;
+    }
+
+    @Override
+    public String toString() {
+        return this.timestamp.getTime() + "_" + this.id;
+    }
+}
@@ -1,26 +1,48 @@
 package entities;
 
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.NavigableSet;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.annotation.JsonView;
 
 public class Post implements Comparable<Post> {
+    // views to serialize posts with: summaries (e.g. in lists of posts) leave
+    // out the properties only included in the detailed view
+    public interface Summary {
+    }
+
+    public interface Detail extends Summary {
+    }
+
     private final UUID id;
     private String author;
     private final String title;
     private final String content;
-    private final Set<Comment> comments = new TreeSet<Comment>();
-    private final Date timestamp = new Date();
+    // declared as a concrete type, so that it's restored as one
+    @JsonView(Detail.class)
+    private final ConcurrentSkipListSet<Comment> comments = new ConcurrentSkipListSet<Comment>();
+    private final Date timestamp;
 
     private Post originalPost; // for rewin feature
-    private final Set<Reaction> reactions = new TreeSet<Reaction>();
+    // by username, as users can only react once to each post
+    private final ConcurrentHashMap<String, Reaction> reactions = new ConcurrentHashMap<>();
+    // kept along with the reactions, so that rendering a post doesn't have to
+    // go through all of them
+    @JsonIgnore
+    private final AtomicInteger upvoteCount = new AtomicInteger();
+    @JsonIgnore
+    private final AtomicInteger downvoteCount = new AtomicInteger();
 
     @JsonCreator
     public Post(
@@ -37,6 +59,7 @@ public class Post implements Comparable<Post> {
         this.title = title;
         this.content = content;
         this.id = UUID.randomUUID();
+        this.timestamp = new Date();
     }
 
     public Post(String author, String title, String content) {
@@ -49,10 +72,27 @@ public class Post implements Comparable<Post> {
         this.title = "";
         this.content = "";
         this.id = UUID.randomUUID();
+        this.timestamp = new Date();
 
         this.originalPost = rewinedPost.isRewin() ? rewinedPost.getRewinedPost() : rewinedPost;
     }
 
+    private Post(PageCursor cursor) {
+        this.title = "";
+        this.content = "";
+        this.id = cursor.getId();
+        this.timestamp = cursor.getTimestamp();
+    }
+
+    public static Post keyOf(PageCursor cursor) {
+        /**
+         * Returns a post that sorts exactly where the one the cursor points
+         * to does, to look it up in sorted sets of posts.
+         * 
+         */
+        return new Post(cursor);
+    }
+
     public UUID getId() {
         return this.id;
     }
@@ -77,14 +117,19 @@ public class Post implements Comparable<Post> {
         return this.timestamp;
     }
 
+    @JsonIgnore
+    public PageCursor getCursor() {
+        return new PageCursor(this.timestamp, this.id);
+    }
+
     @JsonProperty("upvotes")
     public int getUpvotesCount() {
-        return this.getUpvotes().size();
+        return this.upvoteCount.get();
     }
 
     @JsonProperty("downvotes")
     public int getDownvotesCount() {
-        return this.getDownvotes().size();
+        return this.downvoteCount.get();
     }
 
     public boolean addComment(Comment comment) {
@@ -101,30 +146,52 @@ public class Post implements Comparable<Post> {
             return false;
         }
         // user adding more than one reaction to same post
-        if (this.reactions.stream().anyMatch(r -> r.getUser().equals(reaction.getUser()))) {
+        return this.indexReaction(reaction);
+    }
+
+    private boolean indexReaction(Reaction reaction) {
+        if (this.reactions.putIfAbsent(reaction.getUser(), reaction) != null) {
             return false;
         }
-
-        this.reactions.add(reaction);
+        if (reaction.getValue() == 1) {
+            this.upvoteCount.incrementAndGet();
+        } else if (reaction.getValue() == -1) {
+            this.downvoteCount.incrementAndGet();
+        }
         return true;
     }
 
-    public Set<Comment> getComments() {
+    public NavigableSet<Comment> getComments() {
         return this.comments;
     }
 
-    public Set<Reaction> getReactions() {
-        return this.reactions;
+    public Collection<Reaction> getReactions() {
+        return this.reactions.values();
+    }
+
+    @JsonSetter("reactions")
+    public void setReactions(Collection<Reaction> reactions) {
+        /**
+         * Used when a post is deserialized, so that the vote counts are
+         * rebuilt along with the reactions.
+         * 
+         */
+        this.reactions.clear();
+        this.upvoteCount.set(0);
+        this.downvoteCount.set(0);
+        reactions.forEach(this::indexReaction);
     }
 
     @JsonIgnore
     public Set<Reaction> getUpvotes() {
-        return this.reactions.stream().filter(reaction -> reaction.getValue() == 1).collect(Collectors.toSet());
+        return this.reactions.values().stream().filter(reaction -> reaction.getValue() == 1)
+                .collect(Collectors.toSet());
     }
 
     @JsonIgnore
     public Set<Reaction> getDownvotes() {
-        return this.reactions.stream().filter(reaction -> reaction.getValue() == -1).collect(Collectors.toSet());
+        return this.reactions.values().stream().filter(reaction -> reaction.getValue() == -1)
+                .collect(Collectors.toSet());
     }
 
     @JsonIgnore
@@ -143,6 +210,9 @@ public class Post implements Comparable<Post> {
     }
 
     public int compareTo(Post o) {
-        return this.timestamp.compareTo(o.getTimestamp());
+        // posts created in the same millisecond must not be taken for the
+        // same post by sorted sets
+        int byTimestamp = this.timestamp.compareTo(o.getTimestamp());
+        return byTimestamp != 0 ? byTimestamp : this.id.compareTo(o.getId());
     }
 }
@@ -14,7 +14,8 @@ import auth.Password;
 public class User implements Serializable {
     private final String username;
     private final Set<String> tags;
-    private final Password password;
+    // replaced when the password is rehashed
+    private volatile Password password;
 
     public User(@JsonProperty("username") String username,
             @JsonProperty("tags") Set<String> tags) {
@@ -47,6 +48,10 @@ public class User implements Serializable {
         return this.password;
     }
 
+    public void setPassword(Password password) {
+        this.password = password;
+    }
+
     public boolean isCompatibleWith(User anotherUser) {
         for (String tag : anotherUser.getTags()) {
             if (this.tags.contains(tag)) {
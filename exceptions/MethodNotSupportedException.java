@@ -1,4 +0,0 @@
-package exceptions;
-
-public class MethodNotSupportedException extends Exception {
-}
\ No newline at end of file
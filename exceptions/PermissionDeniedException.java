@@ -1,5 +0,0 @@
-package exceptions;
-
-public class PermissionDeniedException extends Exception {
-
-}
@@ -0,0 +1,5 @@
+package exceptions;
+
+public class RequestTooLargeException extends Exception {
+
+}
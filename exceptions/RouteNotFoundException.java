@@ -1,5 +0,0 @@
-package exceptions;
-
-public class RouteNotFoundException extends Exception {
-
-}
@@ -1,4 +1,9 @@
 let followingUsers = []
+let eventStreamController = null
+// cursors of the next page of the paged lists, null once they're all shown
+let usersCursor = null
+let myPostsCursor = null
+let feedCursor = null
 
 function getCurrentViewButton () {
   const currViewId = document.getElementsByClassName('current-view')[0].id
@@ -38,6 +43,101 @@ async function onLoginDone (username, token) {
   await getWallet()
   switchViewTo('feed-view')
   document.getElementById('navbar').classList.remove('hidden')
+  subscribeToEvents(token)
+}
+
+async function subscribeToEvents (token) {
+  // EventSource can't send the Authorization header, so the event stream
+  // is read through fetch instead
+  eventStreamController?.abort()
+  const controller = new AbortController()
+  eventStreamController = controller
+  try {
+    const response = await fetch(axios.defaults.baseURL + '/events', {
+      headers: { Authorization: 'Bearer ' + token },
+      signal: controller.signal
+    })
+    const reader = response.body
+      .pipeThrough(new TextDecoderStream())
+      .getReader()
+    let buffer = ''
+    while (true) {
+      const { value, done } = await reader.read()
+      if (done) {
+        break
+      }
+      buffer += value
+      // events are separated by an empty line
+      let separator
+      while ((separator = buffer.indexOf('\n\n')) != -1) {
+        onServerEvent(buffer.substring(0, separator))
+        buffer = buffer.substring(separator + 2)
+      }
+    }
+  } catch (e) {
+    if (controller.signal.aborted) {
+      return
+    }
+  }
+  // the server went away: try again in a while, unless logged out
+  if (eventStreamController == controller) {
+    setTimeout(() => subscribeToEvents(token), 5000)
+  }
+}
+
+function onServerEvent (rawEvent) {
+  let type = 'message'
+  let data = ''
+  rawEvent.split('\n').forEach(line => {
+    if (line.startsWith('event: ')) {
+      type = line.substring('event: '.length)
+    } else if (line.startsWith('data: ')) {
+      data += line.substring('data: '.length)
+    }
+  })
+  if (!data) {
+    // heartbeat
+    return
+  }
+  const payload = JSON.parse(data)
+  switch (type) {
+    case 'post': {
+      const feedContent = document.getElementById('feed-content')
+      if (!feedContent.querySelector('[id^="post-"]')) {
+        // drop the "empty feed" message
+        feedContent.innerHTML = ''
+      }
+      feedContent.innerHTML = getPostHtml(payload) + feedContent.innerHTML
+      notify(`Nuovo post di ${payload.author}`)
+      break
+    }
+    case 'comment': {
+      const commentsElement = document.getElementById(
+        `post-${payload.postId}-comments-content`
+      )
+      if (commentsElement) {
+        commentsElement.innerHTML += getCommentsHtml([payload.comment])
+      }
+      notify(`${payload.comment.authorUsername} ha commentato un tuo post`)
+      break
+    }
+    case 'reaction':
+      notify(`${payload.reaction.username} ha votato un tuo post`)
+      break
+    case 'wallet': {
+      document.getElementById('wallet-balance').innerHTML =
+        Math.round(payload.balance * 100) / 100
+      const transactions = document.getElementById('transactions')
+      if (!transactions.querySelector('div')) {
+        // drop the "no transactions" message
+        transactions.innerHTML = ''
+      }
+      transactions.innerHTML += getTransactionsHtml([
+        { delta: payload.delta, timestamp: new Date() }
+      ])
+      break
+    }
+  }
 }
 
 async function login () {
@@ -59,6 +159,8 @@ async function logout () {
   try {
     await axios.post('logout', getMyUsername())
     axios.defaults.headers.common['Authorization'] = undefined
+    eventStreamController?.abort()
+    eventStreamController = null
     localStorage.removeItem('winsome_token')
     localStorage.removeItem('winsome_username')
     switchViewTo('login-view')
@@ -72,15 +174,45 @@ async function logout () {
   }
 }
 
-async function getUsers () {
+async function getPage (path, params, cursor) {
+  // lists are sent one page at a time, along with the cursor to ask for the
+  // next one (if there is one) in the X-Next-Cursor header
+  const response = await axios.get(path, {
+    params: { ...params, cursor: cursor ?? undefined }
+  })
+  return {
+    items: response.data,
+    nextCursor: response.headers['x-next-cursor'] ?? null
+  }
+}
+
+function updateLoadMoreButton (buttonId, cursor) {
+  document.getElementById(buttonId).classList.toggle('hidden', cursor === null)
+}
+
+function appendPosts (element, posts) {
+  // a post may already be there if it was created after the list was loaded
+  posts
+    .filter(post => !element.querySelector(`[id="post-${post.id}"]`))
+    .forEach(post => {
+      element.innerHTML += getPostHtml(post)
+    })
+}
+
+async function getUsers (more = false) {
   try {
-    const response = await axios.get('users')
-    const followingList = await axios.get('users/following')
-    followingUsers = followingList.data
-    document.getElementById('user-list-content').innerHTML = getUserListHtml(
-      response.data
-    )
-    console.log(response.data)
+    const userListContent = document.getElementById('user-list-content')
+    if (!more) {
+      const followingList = await axios.get('users/following')
+      followingUsers = followingList.data
+      userListContent.innerHTML = ''
+      usersCursor = null
+    }
+    const page = await getPage('users', {}, usersCursor)
+    userListContent.innerHTML += getUserListHtml(page.items)
+    usersCursor = page.nextCursor
+    updateLoadMoreButton('user-list-more-btn', usersCursor)
+    console.log(page.items)
   } catch {
     showErrorNotification(
       'Si è verificato un errore accedendo alla lista degli utenti. Riprova.'
@@ -98,29 +230,38 @@ async function getWallet () {
     Math.round(response.data.balance * 100) / 100
 }
 
-async function getMyPosts () {
-  const response = await axios.get('posts/my-posts')
-  if (response.data.length == 0) {
-    document.getElementById('my-posts-content').innerHTML =
+async function getMyPosts (more = false) {
+  const myPostsContent = document.getElementById('my-posts-content')
+  if (!more) {
+    myPostsContent.innerHTML = ''
+    myPostsCursor = null
+  }
+  // comments are only loaded when they're shown
+  const page = await getPage('posts/my-posts', { summary: true }, myPostsCursor)
+  if (!more && page.items.length == 0) {
+    myPostsContent.innerHTML =
       'Non hai post. Clicca sul bottone in alto a sinistra per crearne uno!'
   }
-  response.data.forEach(post => {
-    console.log(post)
-    document.getElementById('my-posts-content').innerHTML += getPostHtml(post)
-  })
+  appendPosts(myPostsContent, page.items)
+  myPostsCursor = page.nextCursor
+  updateLoadMoreButton('my-posts-more-btn', myPostsCursor)
 }
 
-async function getFeed () {
-  document.getElementById('feed-content').innerHTML = ''
-  const response = await axios.get('posts')
-  console.log('response', response)
-  if (response.data.length == 0) {
-    document.getElementById('feed-content').innerHTML =
+async function getFeed (more = false) {
+  const feedContent = document.getElementById('feed-content')
+  if (!more) {
+    feedContent.innerHTML = ''
+    feedCursor = null
+  }
+  const page = await getPage('posts', { summary: true }, feedCursor)
+  console.log('page', page)
+  if (!more && page.items.length == 0) {
+    feedContent.innerHTML =
       'Non ci sono post nel tuo feed. Inizia a seguire qualcuno!'
   }
-  response.data.forEach(post => {
-    document.getElementById('feed-content').innerHTML += getPostHtml(post)
-  })
+  appendPosts(feedContent, page.items)
+  feedCursor = page.nextCursor
+  updateLoadMoreButton('feed-more-btn', feedCursor)
 }
 
 async function createPost () {
@@ -287,6 +428,26 @@ function notify (msg) {
   }, 3000)
 }
 
+async function loadComments (postId, cursor = null) {
+  const commentsElement = document.getElementById(
+    `post-${postId}-comments-content`
+  )
+  const moreToggle = document.getElementById(`post-${postId}-comments-more`)
+  try {
+    const page = await getPage(`posts/${postId}/comments`, {}, cursor)
+    if (cursor === null) {
+      // comments received through the event stream meanwhile are included
+      commentsElement.innerHTML = ''
+    }
+    commentsElement.innerHTML += getCommentsHtml(page.items)
+    commentsElement.dataset.loaded = 'true'
+    moreToggle.classList.toggle('hidden', page.nextCursor === null)
+    moreToggle.onclick = () => loadComments(postId, page.nextCursor)
+  } catch {
+    showErrorNotification('Si è verificato un errore caricando i commenti.')
+  }
+}
+
 function showComments (postId) {
   document
     .getElementById('post-' + postId + '-comments')
@@ -294,6 +455,12 @@ function showComments (postId) {
   const toggle = document.getElementById('post-' + postId + '-comments-toggle')
   toggle.innerHTML =
     toggle.innerHTML[0] == 'M' ? 'Nascondi commenti' : 'Mostra commenti'
+  const commentsElement = document.getElementById(
+    `post-${postId}-comments-content`
+  )
+  if (!commentsElement.dataset.loaded) {
+    loadComments(postId)
+  }
 }
 
 function getPostHtml (post) {
@@ -373,9 +540,10 @@ function getPostHtml (post) {
                     <div id="post-${post.id}-comments" class="hidden">
                         <div id="post-${
                           post.id
-                        }-comments-content">${getCommentsHtml(
-    post.comments
-  )}</div>
+                        }-comments-content"></div>
+                        <p id="post-${
+                          post.id
+                        }-comments-more" class="hidden mb-4 text-sm text-blue-900 cursor-pointer hover:underline">Mostra altri commenti</p>
                         <div class="flex space-x-2">
                             <input id="post-${
                               post.id
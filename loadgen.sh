@@ -0,0 +1,3 @@
+#!/bin/bash
+
+java -cp "./libs/jackson-core-2.13.0.jar:./libs/jackson-annotations-2.13.0.jar:./libs/jackson-databind-2.13.0.jar:build" main.MainLoadGenerator "$@"
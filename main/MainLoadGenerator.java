@@ -0,0 +1,148 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import services.Serializer;
+import services.ServerConfig;
+
+public class MainLoadGenerator {
+    /**
+     * Small closed-loop load generator used to compare server configurations
+     * (e.g. different reactor counts) on a local machine.
+     * 
+     * Logs in once, then opens `connections` keep-alive connections, each
+     * of which repeatedly sends a GET request for `path` and waits for the
+     * full response before sending the next one. At the end prints the
+     * achieved throughput and latency percentiles.
+     * 
+     */
+    private static final File DEFAULT_CONFIG_FILE = new File("client_config.json");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4 || args.length > 6) {
+            System.out.println(
+                    "Usage: java MainLoadGenerator username password connections seconds path? configFile?");
+            System.exit(1);
+        }
+        String username = args[0];
+        String password = args[1];
+        int connections = Integer.parseInt(args[2]);
+        long durationMillis = Long.parseLong(args[3]) * 1000;
+        String path = args.length > 4 ? args[4] : "/posts";
+        File configFile = args.length > 5 ? new File(args[5]) : MainLoadGenerator.DEFAULT_CONFIG_FILE;
+
+        ServerConfig config = new Serializer<ServerConfig>().parse(configFile, ServerConfig.class);
+
+        String token;
+        try (Socket skt = new Socket(config.getServerAddr(), config.getTcpPort())) {
+            String body = exchange(new BufferedInputStream(skt.getInputStream()), skt.getOutputStream(),
+                    buildRequest("POST", "/login", null, username + "\n" + password));
+            token = body.split("\n")[0].trim();
+        }
+
+        byte[] request = buildRequest("GET", path, token, "");
+        List<List<Long>> latencies = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + durationMillis;
+
+        for (int i = 0; i < connections; i++) {
+            List<Long> workerLatencies = new ArrayList<>();
+            latencies.add(workerLatencies);
+            Thread worker = new Thread(() -> {
+                try (Socket skt = new Socket(config.getServerAddr(), config.getTcpPort())) {
+                    InputStream in = new BufferedInputStream(skt.getInputStream());
+                    OutputStream out = skt.getOutputStream();
+                    while (System.currentTimeMillis() < deadline) {
+                        long start = System.nanoTime();
+                        exchange(in, out, request);
+                        workerLatencies.add(System.nanoTime() - start);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        List<Long> all = new ArrayList<>();
+        latencies.forEach(all::addAll);
+        Collections.sort(all);
+        if (all.isEmpty()) {
+            System.out.println("No request completed.");
+            return;
+        }
+        System.out.println("Requests: " + all.size());
+        System.out.println("Throughput: " + (all.size() * 1000 / durationMillis) + " req/s");
+        System.out.println("p50 latency: " + percentile(all, 50) / 1000 + " us");
+        System.out.println("p99 latency: " + percentile(all, 99) / 1000 + " us");
+        System.out.println("max latency: " + all.get(all.size() - 1) / 1000 + " us");
+    }
+
+    private static long percentile(List<Long> sorted, int pct) {
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * pct / 100));
+    }
+
+    private static byte[] buildRequest(String method, String path, String token, String body) {
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        String head = method + " " + path + " HTTP/1.1\r\n"
+                + (token != null ? "Authorization: Bearer " + token + "\r\n" : "")
+                + "content-length: " + bodyBytes.length + "\r\n\r\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(head.getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(bodyBytes);
+        return out.toByteArray();
+    }
+
+    private static String exchange(InputStream in, OutputStream out, byte[] request) throws IOException {
+        /**
+         * Writes a request and reads back exactly one response, framed by its
+         * `content-length` header; returns the response body.
+         * 
+         */
+        out.write(request);
+        out.flush();
+
+        int contentLength = 0;
+        String line;
+        // skip any blank lines left over from a previous response
+        while ((line = readLine(in)).isEmpty()) {
+            ;
+        }
+        while (!(line = readLine(in)).isEmpty()) {
+            int separator = line.indexOf(':');
+            if (separator > 0 && line.substring(0, separator).trim().equalsIgnoreCase("content-length")) {
+                contentLength = Integer.parseInt(line.substring(separator + 1).trim());
+            }
+        }
+        byte[] body = in.readNBytes(contentLength);
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                throw new IOException("Connection closed by server");
+            }
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -24,7 +24,8 @@ public class MainServer {
         }
         try {
             new Server(configFile, apiSchemaFile).start();
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
+            // unreadable configuration or API schema
             e.printStackTrace();
             System.exit(1);
         }
@@ -0,0 +1,186 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import auth.Password;
+import entities.Post;
+import entities.User;
+import services.DataStoreService;
+import services.Serializer;
+
+public class MainStressTest {
+    /**
+     * Stress test for the data store's concurrent operations, run in process
+     * without a server.
+     * 
+     * Registers `users` users, then has `threads` threads randomly publish,
+     * rewin and delete posts, follow and unfollow users and read feeds for
+     * `seconds` seconds, while another thread keeps serializing the store as
+     * the persistence thread does. At the end checks that no operation
+     * failed and that the store is consistent: every post is in the post
+     * map, the follow graph is symmetric, no rewin outlives its original and
+     * every feed holds exactly the posts of the user and of the users they
+     * follow. Exits with status 1 if any of these checks fails.
+     * 
+     */
+    private static final int FEED_PAGE_SIZE = 50;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Usage: java MainStressTest threads seconds users?");
+            System.exit(1);
+        }
+        int threads = Integer.parseInt(args[0]);
+        long durationMillis = Long.parseLong(args[1]) * 1000;
+        int users = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        DataStoreService store = new DataStoreService();
+        // a single iteration keeps registration quick: passwords aren't checked
+        Password password = new Password("password", 1);
+        for (int i = 0; i < users; i++) {
+            store.registerUser("user" + i, Set.of("stress"), password);
+        }
+
+        AtomicLong operations = new AtomicLong();
+        AtomicLong serializations = new AtomicLong();
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> workers = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + durationMillis;
+
+        for (int i = 0; i < threads; i++) {
+            Random random = new Random(i);
+            workers.add(new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        String user = "user" + random.nextInt(users);
+                        String other = "user" + random.nextInt(users);
+                        runOperation(store, random.nextInt(10), user, other);
+                        operations.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        workers.add(new Thread(() -> {
+            try {
+                while (System.currentTimeMillis() < deadline) {
+                    new Serializer<DataStoreService>().serialize(store);
+                    serializations.incrementAndGet();
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        }));
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        System.out.println("Operations: " + operations.get() + " (" + (operations.get() * 1000 / durationMillis)
+                + " ops/s)");
+        System.out.println("Serializations: " + serializations.get());
+        System.out.println("Failed operations: " + failures.size());
+        if (!failures.isEmpty()) {
+            failures.peek().printStackTrace(System.out);
+        }
+        int violations = checkInvariants(store, users);
+        System.out.println("Invariant violations: " + violations);
+        System.exit(failures.isEmpty() && violations == 0 ? 0 : 1);
+    }
+
+    private static void runOperation(DataStoreService store, int operation, String user, String other) {
+        if (operation < 2) {
+            store.addPost(user, new Post(user, "stress", "content"));
+        } else if (operation < 4) {
+            if (!user.equals(other)) {
+                store.addFollower(user, other);
+            }
+        } else if (operation < 5) {
+            store.removeFollower(user, other);
+        } else if (operation < 6) {
+            for (Post post : store.getUserPosts(user)) {
+                store.deletePost(post.getId(), user);
+                break;
+            }
+        } else if (operation < 7) {
+            for (Post post : store.getUserPosts(user)) {
+                if (!post.isRewin() && !post.getAuthor().equals(other)) {
+                    store.addPost(other, new Post(other, post));
+                    break;
+                }
+            }
+        } else {
+            getFeed(store, user);
+            store.getUserFollowers(user);
+            store.getUserFollowing(user);
+        }
+    }
+
+    private static List<Post> getFeed(DataStoreService store, String username) {
+        /**
+         * Reads the whole feed of the given user, a page at a time as the
+         * server does.
+         * 
+         */
+        List<Post> feed = new ArrayList<>();
+        Post after = null;
+        while (true) {
+            List<Post> page = store.getUserFeed(username, after, FEED_PAGE_SIZE);
+            feed.addAll(page);
+            if (page.size() < FEED_PAGE_SIZE) {
+                return feed;
+            }
+            after = page.get(FEED_PAGE_SIZE - 1);
+        }
+    }
+
+    private static int checkInvariants(DataStoreService store, int users) {
+        int violations = 0;
+        for (int i = 0; i < users; i++) {
+            String username = "user" + i;
+            User user = store.getUser(username);
+            Set<UUID> expectedFeed = new HashSet<>();
+            for (int j = 0; j < users; j++) {
+                String author = "user" + j;
+                if (author.equals(username) || store.getUserFollowers(author).contains(user)) {
+                    store.getUserPosts(author).forEach(post -> expectedFeed.add(post.getId()));
+                }
+            }
+            Set<UUID> feed = new HashSet<>();
+            getFeed(store, username).forEach(post -> feed.add(post.getId()));
+            if (!feed.equals(expectedFeed)) {
+                violations++;
+                System.out.println("Wrong feed for " + username + ": " + feed.size() + " posts instead of "
+                        + expectedFeed.size());
+            }
+
+            for (Post post : store.getUserPosts(username)) {
+                if (store.getPost(post.getId()) != post) {
+                    violations++;
+                    System.out.println("Post " + post.getId() + " by " + username + " missing from the post map");
+                }
+                if (post.isRewin() && store.getPost(post.getRewinedPost().getId()) == null) {
+                    violations++;
+                    System.out.println("Rewin " + post.getId() + " by " + username + " of a deleted post");
+                }
+            }
+            for (User follower : store.getUserFollowers(username)) {
+                if (!store.getUserFollowing(follower.getUsername()).contains(user)) {
+                    violations++;
+                    System.out.println(follower.getUsername() + " follows " + username + " one way only");
+                }
+            }
+        }
+        return violations;
+    }
+}
@@ -0,0 +1,25 @@
+package protocol;
+
+import java.util.concurrent.CompletableFuture;
+
+public class DeferredResponse extends RestResponse {
+    /**
+     * Returned by handlers whose response depends on work done elsewhere
+     * (e.g. hashing a password on a dedicated executor): the handler thread
+     * is released right away, and the response is sent once `result`
+     * completes.
+     * 
+     * This response itself is never sent.
+     * 
+     */
+    private final CompletableFuture<RestResponse> result;
+
+    public DeferredResponse(CompletableFuture<RestResponse> result) {
+        super(500);
+        this.result = result;
+    }
+
+    public CompletableFuture<RestResponse> getResult() {
+        return this.result;
+    }
+}
@@ -0,0 +1,20 @@
+package protocol;
+
+public class EventStreamResponse extends RestResponse {
+    /**
+     * Response opening a Server-Sent Events stream: only its head is
+     * written right away, with no `content-length`, and the connection is
+     * then kept open to push the events published for `subscriber`.
+     * 
+     */
+    private final String subscriber;
+
+    public EventStreamResponse(String subscriber) {
+        super(200);
+        this.subscriber = subscriber;
+    }
+
+    public String getSubscriber() {
+        return this.subscriber;
+    }
+}
@@ -0,0 +1,214 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+
+public class RequestParser {
+    /**
+     * State machine parsing an HTTP/1.1 request straight from its bytes.
+     * 
+     * The request line and the headers are scanned exactly once, and nothing
+     * is decoded: the resulting RestRequest only records where the path, the
+     * query string, each header name and value, and the body are within the
+     * request bytes, and creates Strings out of them only when (and if) they
+     * are asked for.
+     * 
+     * The parser expects a single, complete request: framing the requests
+     * read from a connection is up to the caller.
+     * 
+     */
+    private enum State {
+        METHOD,
+        PATH,
+        QUERY,
+        VERSION,
+        REQUEST_LINE_END,
+        HEADER_LINE_START,
+        HEADER_NAME,
+        HEADER_VALUE_START,
+        HEADER_VALUE,
+        HEADER_LINE_END,
+        HEADERS_END
+    }
+
+    private static final int MAX_HEADERS = 64;
+    private static final byte[] HTTP_VERSION_PREFIX = { 'H', 'T', 'T', 'P', '/' };
+
+    private RequestParser() {
+    }
+
+    public static RestRequest parse(ByteBuffer request) {
+        /**
+         * Parses the request contained in the remaining bytes of the given
+         * heap buffer; the returned RestRequest keeps a reference to the
+         * buffer's backing array, so the caller mustn't reuse it.
+         * 
+         * Throws IllegalArgumentException if the request is malformed.
+         * 
+         */
+        if (!request.hasArray()) {
+            ByteBuffer copy = ByteBuffer.allocate(request.remaining());
+            copy.put(request.duplicate()).flip();
+            request = copy;
+        }
+        byte[] bytes = request.array();
+        int from = request.arrayOffset() + request.position();
+        int to = request.arrayOffset() + request.limit();
+
+        HttpMethod method = null;
+        int pathStart = -1, pathEnd = -1, queryStart = -1, queryEnd = -1, versionStart = -1;
+        // for each header: name start, name end, value start, value end
+        int[] headerOffsets = new int[8 * 4];
+        int headerCount = 0;
+        int valueEnd = -1;
+
+        State state = State.METHOD;
+        int tokenStart = from;
+        int i = from;
+        for (; i < to && state != State.HEADERS_END; i++) {
+            byte b = bytes[i];
+            switch (state) {
+                case METHOD:
+                    if (b == ' ') {
+                        method = parseMethod(bytes, tokenStart, i);
+                        pathStart = i + 1;
+                        state = State.PATH;
+                    } else if (b < 'A' || b > 'Z') {
+                        throw new IllegalArgumentException("Invalid HTTP method");
+                    }
+                    break;
+                case PATH:
+                    if (b == ' ' || b == '?') {
+                        pathEnd = i;
+                        if (pathEnd == pathStart || bytes[pathStart] != '/') {
+                            throw new IllegalArgumentException("Invalid request path");
+                        }
+                        if (b == '?') {
+                            queryStart = i + 1;
+                            state = State.QUERY;
+                        } else {
+                            versionStart = i + 1;
+                            state = State.VERSION;
+                        }
+                    } else if (b < 0x21 || b == 0x7f) {
+                        throw new IllegalArgumentException("Invalid request path");
+                    }
+                    break;
+                case QUERY:
+                    if (b == ' ') {
+                        queryEnd = i;
+                        versionStart = i + 1;
+                        state = State.VERSION;
+                    } else if (b < 0x21 || b == 0x7f) {
+                        throw new IllegalArgumentException("Invalid query string");
+                    }
+                    break;
+                case VERSION:
+                    if (b == '\r' || b == '\n') {
+                        checkVersion(bytes, versionStart, i);
+                        state = b == '\r' ? State.REQUEST_LINE_END : State.HEADER_LINE_START;
+                    } else if (b == ' ') {
+                        throw new IllegalArgumentException("Invalid HTTP request line");
+                    }
+                    break;
+                case REQUEST_LINE_END:
+                case HEADER_LINE_END:
+                    if (b != '\n') {
+                        throw new IllegalArgumentException("Expected line feed");
+                    }
+                    state = State.HEADER_LINE_START;
+                    break;
+                case HEADER_LINE_START:
+                    if (b == '\r') {
+                        // empty line: the headers are over, expect the final line feed
+                        if (i + 1 >= to || bytes[i + 1] != '\n') {
+                            throw new IllegalArgumentException("Expected line feed");
+                        }
+                        i++;
+                        state = State.HEADERS_END;
+                    } else if (b == '\n') {
+                        state = State.HEADERS_END;
+                    } else {
+                        if (headerCount == MAX_HEADERS) {
+                            throw new IllegalArgumentException("Too many headers");
+                        }
+                        if (headerCount * 4 == headerOffsets.length) {
+                            int[] grown = new int[headerOffsets.length * 2];
+                            System.arraycopy(headerOffsets, 0, grown, 0, headerOffsets.length);
+                            headerOffsets = grown;
+                        }
+                        headerOffsets[headerCount * 4] = i;
+                        state = State.HEADER_NAME;
+                        i--; // the first byte of the name is checked in the next state
+                    }
+                    break;
+                case HEADER_NAME:
+                    if (b == ':') {
+                        if (i == headerOffsets[headerCount * 4]) {
+                            throw new IllegalArgumentException("Empty header name");
+                        }
+                        headerOffsets[headerCount * 4 + 1] = i;
+                        state = State.HEADER_VALUE_START;
+                    } else if (b <= ' ' || b == 0x7f) {
+                        throw new IllegalArgumentException("Invalid header name");
+                    }
+                    break;
+                case HEADER_VALUE_START:
+                    if (b == ' ' || b == '\t') {
+                        break;
+                    }
+                    headerOffsets[headerCount * 4 + 2] = i;
+                    valueEnd = i;
+                    state = State.HEADER_VALUE;
+                    i--; // the first byte of the value is handled in the next state
+                    break;
+                case HEADER_VALUE:
+                    if (b == '\r' || b == '\n') {
+                        // trailing whitespace isn't part of the value
+                        headerOffsets[headerCount * 4 + 3] = valueEnd;
+                        headerCount++;
+                        state = b == '\r' ? State.HEADER_LINE_END : State.HEADER_LINE_START;
+                    } else if (b != ' ' && b != '\t') {
+                        valueEnd = i + 1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (state != State.HEADERS_END) {
+            throw new IllegalArgumentException("Incomplete HTTP request");
+        }
+
+        return new RestRequest(method, bytes, pathStart, pathEnd, queryStart, queryEnd,
+                headerOffsets, headerCount, i, to);
+    }
+
+    private static HttpMethod parseMethod(byte[] bytes, int from, int to) {
+        // compare the bytes against the method names without decoding them
+        for (HttpMethod method : HttpMethod.values()) {
+            String name = method.name();
+            if (name.length() != to - from) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < name.length() && matches; i++) {
+                matches = bytes[from + i] == name.charAt(i);
+            }
+            if (matches) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported HTTP method");
+    }
+
+    private static void checkVersion(byte[] bytes, int from, int to) {
+        if (to - from <= HTTP_VERSION_PREFIX.length) {
+            throw new IllegalArgumentException("Invalid HTTP version");
+        }
+        for (int i = 0; i < HTTP_VERSION_PREFIX.length; i++) {
+            if (bytes[from + i] != HTTP_VERSION_PREFIX[i]) {
+                throw new IllegalArgumentException("Invalid HTTP version");
+            }
+        }
+    }
+}
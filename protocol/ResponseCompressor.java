@@ -0,0 +1,167 @@
+package protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+public class ResponseCompressor {
+    /**
+     * Compresses response bodies with the content coding negotiated through
+     * the request's `Accept-Encoding` header: gzip is preferred to deflate
+     * when the client accepts both.
+     * 
+     * Deflaters hold native memory and are expensive to create, so they're
+     * kept in bounded pools and reset after use, rather than kept by each
+     * thread: handlers may run on a new virtual thread each time. Deflaters
+     * that don't fit in a pool are ended right away, freeing their memory.
+     * 
+     */
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final byte[] GZIP_HEADER = {
+            0x1f, (byte) 0x8b, // magic number
+            Deflater.DEFLATED, // compression method
+            0, // flags
+            0, 0, 0, 0, // modification time
+            0, // extra flags
+            (byte) 0xff // operating system (unknown)
+    };
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private static final int MAX_POOLED_DEFLATERS = Math.max(Runtime.getRuntime().availableProcessors() * 2, 4);
+
+    // raw deflate streams, wrapped in the gzip format by hand
+    private static final BlockingQueue<Deflater> gzipDeflaters = new ArrayBlockingQueue<>(MAX_POOLED_DEFLATERS);
+    // zlib streams, which is what the `deflate` content coding actually is
+    private static final BlockingQueue<Deflater> zlibDeflaters = new ArrayBlockingQueue<>(MAX_POOLED_DEFLATERS);
+
+    private ResponseCompressor() {
+    }
+
+    public static RestResponse compress(RestRequest request, RestResponse response, int threshold) {
+        /**
+         * Returns the response with its body compressed, if the client
+         * accepts a supported content coding and the body is at least
+         * `threshold` bytes long; otherwise returns the response unchanged.
+         * 
+         * A negative threshold disables compression.
+         * 
+         */
+        if (response == null || response.getBody().isEmpty() || threshold < 0
+                || ResponseEncoder.utf8Length(response.getBody()) < threshold) {
+            return response;
+        }
+        String coding = negotiateEncoding(request.getHeader("Accept-Encoding"));
+        if (coding == null) {
+            return response;
+        }
+
+        byte[] body = response.getBody().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = coding.equals(GZIP) ? gzip(body) : deflate(body);
+        if (compressed.length >= body.length) {
+            // not worth it
+            return response;
+        }
+
+        Map<String, String> headers = new HashMap<>(response.getHeaders());
+        headers.put("Content-Encoding", coding);
+        headers.put("Vary", "Accept-Encoding");
+        return new RestResponse(response.getCode(), headers, response.getBody(), compressed);
+    }
+
+    static String negotiateEncoding(String acceptEncoding) {
+        /**
+         * Picks the content coding to use among the ones listed in the given
+         * `Accept-Encoding` header value, honoring `q=0` exclusions; returns
+         * null if none of the listed codings is supported.
+         * 
+         */
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean gzip = false, deflate = false;
+        for (String entry : acceptEncoding.split(",")) {
+            String[] params = entry.split(";");
+            String coding = params[0].trim().toLowerCase();
+            boolean accepted = true;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                gzip = accepted;
+            } else if (coding.equals(DEFLATE)) {
+                deflate = accepted;
+            }
+        }
+        return gzip ? GZIP : deflate ? DEFLATE : null;
+    }
+
+    private static byte[] gzip(byte[] input) {
+        CRC32 checksum = new CRC32();
+        checksum.update(input);
+
+        byte[] output = deflate(gzipDeflaters, true, input, GZIP_HEADER.length, GZIP_TRAILER_LENGTH);
+        System.arraycopy(GZIP_HEADER, 0, output, 0, GZIP_HEADER.length);
+        // trailer: CRC-32 and length of the uncompressed data, little endian
+        int trailer = output.length - GZIP_TRAILER_LENGTH;
+        writeIntLE(output, trailer, (int) checksum.getValue());
+        writeIntLE(output, trailer + 4, input.length);
+        return output;
+    }
+
+    private static byte[] deflate(byte[] input) {
+        return deflate(zlibDeflaters, false, input, 0, 0);
+    }
+
+    private static byte[] deflate(BlockingQueue<Deflater> pool, boolean nowrap, byte[] input, int headerLength,
+            int trailerLength) {
+        /**
+         * Compresses the input with a deflater taken from the given pool,
+         * returning an array with `headerLength` free bytes before the
+         * compressed data and `trailerLength` after it.
+         * 
+         */
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+        }
+        byte[] output = new byte[headerLength + input.length / 2 + 64 + trailerLength];
+        int length = headerLength;
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (length == output.length - trailerLength) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                length += deflater.deflate(output, length, output.length - trailerLength - length);
+            }
+        } finally {
+            deflater.reset();
+            if (!pool.offer(deflater)) {
+                deflater.end();
+            }
+        }
+        return output.length == length + trailerLength ? output : Arrays.copyOf(output, length + trailerLength);
+    }
+
+    private static void writeIntLE(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >>> 8);
+        dst[offset + 2] = (byte) (value >>> 16);
+        dst[offset + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,182 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+public class ResponseEncoder {
+    /**
+     * Writes RestResponses in their HTTP/1.1 wire format.
+     * 
+     * The status lines and the headers every response carries are encoded
+     * once, when the class is loaded, and copied as they are into the
+     * destination buffer; the body is encoded straight from its characters
+     * into the buffer, after its length in bytes (which is what
+     * `content-length` must contain) has been computed without encoding it.
+     * Bodies that have been compressed are copied as they are instead.
+     * 
+     */
+    private static final byte[][] STATUS_LINES = initStatusLines();
+    private static final byte[] DEFAULT_HEADERS = ("content-type: application/json\r\n"
+            // for usage inside of browser
+            + "Access-Control-Allow-Origin: *\r\n"
+            + "Access-Control-Allow-Methods: *\r\n"
+            + "Access-Control-Allow-Headers: *\r\n"
+            // lets scripts read the cursor of the next page of a list
+            + "Access-Control-Expose-Headers: X-Next-Cursor\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EVENT_STREAM_HEADERS = ("content-type: text/event-stream\r\n"
+            + "cache-control: no-cache\r\n"
+            + "Access-Control-Allow-Origin: *\r\n"
+            + "Access-Control-Allow-Methods: *\r\n"
+            + "Access-Control-Allow-Headers: *\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "content-length: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] HEADER_SEPARATOR = { ':', ' ' };
+
+    private static final ThreadLocal<CharsetEncoder> encoders = ThreadLocal
+            .withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+                    // unpaired surrogates become '?', like String.getBytes does
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+    private ResponseEncoder() {
+    }
+
+    private static byte[][] initStatusLines() {
+        byte[][] lines = new byte[600][];
+        for (Map.Entry<Integer, String> entry : RestResponse.verboseCodes.entrySet()) {
+            lines[entry.getKey()] = ("HTTP/1.1 " + entry.getValue() + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+        return lines;
+    }
+
+    public static ByteBuffer encode(RestResponse response, IntFunction<ByteBuffer> allocator) {
+        /**
+         * Encodes the response into a buffer obtained from `allocator`, which
+         * is asked for exactly as many bytes as the encoded response takes;
+         * returns the buffer, flipped and ready to be written.
+         * 
+         */
+        byte[] statusLine = STATUS_LINES[response.getCode()];
+        if (response instanceof WebSocketUpgradeResponse) {
+            WebSocketUpgradeResponse upgrade = (WebSocketUpgradeResponse) response;
+            byte[] head = ("Upgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: "
+                    + upgrade.getAcceptKey() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            byte[] initialMessage = upgrade.getInitialMessage();
+            if (initialMessage == null) {
+                initialMessage = new byte[0];
+            }
+            ByteBuffer dst = allocator.apply(statusLine.length + head.length + initialMessage.length);
+            dst.put(statusLine).put(head).put(initialMessage).flip();
+            return dst;
+        }
+        if (response instanceof EventStreamResponse) {
+            // the body is the stream of events that follows, of unknown length
+            ByteBuffer dst = allocator.apply(statusLine.length + EVENT_STREAM_HEADERS.length);
+            dst.put(statusLine).put(EVENT_STREAM_HEADERS).flip();
+            return dst;
+        }
+        String body = response.getBody();
+        Map<String, String> headers = response.getHeaders();
+
+        byte[] encodedBody = response.getEncodedBody();
+
+        int bodyLength = encodedBody != null ? encodedBody.length : utf8Length(body);
+        int length = statusLine.length + DEFAULT_HEADERS.length
+                + CONTENT_LENGTH.length + digitCount(bodyLength) + CRLF.length
+                + CRLF.length + bodyLength;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            length += utf8Length(header.getKey()) + HEADER_SEPARATOR.length
+                    + utf8Length(header.getValue()) + CRLF.length;
+        }
+
+        ByteBuffer dst = allocator.apply(length);
+        dst.put(statusLine).put(DEFAULT_HEADERS);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            putString(dst, header.getKey());
+            dst.put(HEADER_SEPARATOR);
+            putString(dst, header.getValue());
+            dst.put(CRLF);
+        }
+        dst.put(CONTENT_LENGTH);
+        putDigits(dst, bodyLength);
+        dst.put(CRLF).put(CRLF);
+        if (encodedBody != null) {
+            dst.put(encodedBody);
+        } else {
+            putString(dst, body);
+        }
+        dst.flip();
+        return dst;
+    }
+
+    static boolean isDefaultHeader(String name) {
+        /**
+         * Returns true for the headers that are written to every response,
+         * and so needn't be stored in RestResponses.
+         * 
+         */
+        return name.equalsIgnoreCase("content-type") || name.equalsIgnoreCase("content-length")
+                || name.regionMatches(true, 0, "Access-Control-Allow-", 0, "Access-Control-Allow-".length())
+                || name.equalsIgnoreCase("Access-Control-Expose-Headers");
+    }
+
+    private static void putString(ByteBuffer dst, String str) {
+        CharsetEncoder encoder = encoders.get();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(str), dst, true);
+        encoder.flush(dst);
+    }
+
+    static int utf8Length(CharSequence str) {
+        /**
+         * Returns how many bytes the UTF-8 encoding of the given characters
+         * takes, without encoding them.
+         * 
+         */
+        int length = str.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                // a surrogate pair takes 4 bytes in total
+                bytes += 2;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced by a single '?'
+            } else {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    private static int digitCount(int n) {
+        int count = 1;
+        while (n >= 10) {
+            n /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    private static void putDigits(ByteBuffer dst, int n) {
+        int position = dst.position() + digitCount(n);
+        for (int i = position - 1; i >= dst.position(); i--) {
+            dst.put(i, (byte) ('0' + n % 10));
+            n /= 10;
+        }
+        dst.position(position);
+    }
+}
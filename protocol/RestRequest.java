@@ -1,127 +1,179 @@
 package protocol;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
 public class RestRequest {
-    private final String path;
-    private final UUID pathParameter;
+    /**
+     * An HTTP request, either built by a client to be sent to the server or
+     * parsed by the server from the bytes it received.
+     * 
+     * A request parsed by RequestParser keeps the original bytes along with
+     * the offsets of each of its parts: the path, headers and body are only
+     * decoded into Strings when they're asked for, and cached afterwards.
+     * 
+     */
+    private String path;
+    private UUID pathParameter;
     private final HttpMethod method;
-    private Map<String, String> headers = new HashMap<>();
-    private final String body;
+    private Map<String, String> headers;
+    private String body;
+    private String query;
 
-    private final String URI_PARAMETER_TOKEN = "<id>";
+    // offsets of the parts of a parsed request within `raw`
+    private final byte[] raw;
+    private int rawPathStart, rawPathEnd, rawQueryStart, rawQueryEnd, rawBodyStart, rawBodyEnd;
+    private int[] rawHeaderOffsets;
+    private int rawHeaderCount;
+
+    private static final String URI_PARAMETER_TOKEN = "<id>";
 
     public RestRequest(String path, HttpMethod method, Map<String, String> headers) {
         this(path, method, headers, "");
     }
 
     public RestRequest(String path, HttpMethod method, Map<String, String> headers, String body) {
-        String[] pathAndParameter = this.getParsedRequestPath(path);
-
-        this.path = pathAndParameter[0];
-        this.pathParameter = pathAndParameter[1] == null ? null : UUID.fromString(pathAndParameter[1]);
+        int queryIndex = path.indexOf('?');
+        this.query = queryIndex == -1 ? null : path.substring(queryIndex + 1);
+        // the path is parsed from its UTF-8 bytes, so its end is an offset in them
+        byte[] pathBytes = (queryIndex == -1 ? path : path.substring(0, queryIndex)).getBytes(StandardCharsets.UTF_8);
+        this.parsePath(pathBytes, 0, pathBytes.length);
         this.method = method;
         this.headers = headers == null ? new HashMap<>() : headers;
         this.body = body == null ? "" : body;
+        this.raw = null;
     }
 
-    private String[] getParsedRequestPath(String requestPath) {
+    RestRequest(HttpMethod method, byte[] raw, int pathStart, int pathEnd, int queryStart, int queryEnd,
+            int[] headerOffsets, int headerCount, int bodyStart, int bodyEnd) {
         /**
-         * Takes in a String representing a REST path and parses it looking for
-         * a UUID parameter in the URI.
+         * Used by RequestParser: `headerOffsets` holds, for each header, the
+         * offsets of the start and end of its name and value.
          * 
-         * If the path doesn't contain UUID parameters,for example: `/posts`, the first
-         * element of the returned pair is the passed String unchanged and the
-         * second element is null.
+         */
+        this.method = method;
+        this.raw = raw;
+        this.rawPathStart = pathStart;
+        this.rawPathEnd = pathEnd;
+        this.rawQueryStart = queryStart;
+        this.rawQueryEnd = queryEnd;
+        this.rawHeaderOffsets = headerOffsets;
+        this.rawHeaderCount = headerCount;
+        this.rawBodyStart = bodyStart;
+        this.rawBodyEnd = bodyEnd;
+    }
+
+    private void parsePath(byte[] bytes, int from, int to) {
+        /**
+         * Parses the bytes of a REST path looking for a UUID parameter in
+         * the URI.
+         * 
+         * If the path doesn't contain UUID parameters, for example: `/posts`,
+         * the path is kept unchanged and the path parameter is null.
          * 
          * If the path contains a UUID, for example:
          * `/posts/123e4567-e89b-12d3-a456-426614174000/comments`,
-         * the first element of the returned pair is the URI with a symbolic token
-         * in place of the parameter: `/posts/<id>/comments`, and the second element
-         * is the parameter `123e4567-e89b-12d3-a456-426614174000`.
+         * the path becomes the URI with a symbolic token in place of the
+         * parameter: `/posts/<id>/comments`, and the path parameter is
+         * `123e4567-e89b-12d3-a456-426614174000`.
          * 
          * *NB* this assumes that the path will contain AT MOST ONE parameter
          * (it's a compromise but works fine here because no route in the project
-         * ever uses more than one parameter, and this function could easily be
-         * extended to accept an arbitrary number of parameters in the URI) and
+         * ever uses more than one parameter); if there are more, the last one
+         * is kept as the path parameter.
          * 
          */
-
-        String[] pair = new String[2];
-        pair[1] = null;
-
-        String[] tokens = requestPath.split("/");
-
-        String constructedString = "";
-        for (String token : tokens) {
-            constructedString += "/";
-
-            try {
-                // test token to see if it's a valid UUID
-                UUID.fromString(token);
-                // found a UUID parameter (otherwise exception would've been raised)
-                pair[1] = token;
-                // insert token in place of UUID
-                constructedString += this.URI_PARAMETER_TOKEN;
-            } catch (IllegalArgumentException e) {
-                // exception raised when trying to convert token to a UUID,
-                // meaning this token is not a UUID parameter
-                constructedString += token;
+        StringBuilder templatedPath = null;
+        int copiedUpTo = from;
+        int segmentStart = from;
+        for (int i = from; i <= to; i++) {
+            if (i < to && bytes[i] != '/') {
+                continue;
+            }
+            UUID parameter = parseUUID(bytes, segmentStart, i);
+            if (parameter != null) {
+                if (templatedPath == null) {
+                    templatedPath = new StringBuilder(to - from);
+                }
+                templatedPath.append(new String(bytes, copiedUpTo, segmentStart - copiedUpTo, StandardCharsets.UTF_8))
+                        .append(URI_PARAMETER_TOKEN);
+                copiedUpTo = i;
+                this.pathParameter = parameter;
             }
+            segmentStart = i + 1;
         }
 
-        // remove the extra `/` at the beginning
-        pair[0] = constructedString.length() > 1 ? constructedString.substring(1) : constructedString;
-        return pair;
+        // a trailing `/` isn't part of the path (`/posts/` is the same as `/posts`)
+        int end = to - from > 1 && bytes[to - 1] == '/' ? to - 1 : to;
+        if (templatedPath == null) {
+            this.path = new String(bytes, from, end - from, StandardCharsets.UTF_8);
+        } else {
+            this.path = templatedPath.append(new String(bytes, copiedUpTo, Math.max(end - copiedUpTo, 0),
+                    StandardCharsets.UTF_8)).toString();
+        }
     }
 
-    public static RestRequest parseRequestString(String request) throws IOException {
+    private static UUID parseUUID(byte[] bytes, int from, int to) {
         /**
-         * Takes in a string containing an HTTP request; returns a RestRequest
-         * object containing the parsed elements of the request string
+         * Parses a UUID in its canonical textual form
+         * (8-4-4-4-12 hex digits) without creating any intermediate String;
+         * returns null if the bytes aren't a UUID.
          * 
          */
-        try (BufferedReader reader = new BufferedReader(new StringReader(request))) {
-            String reqLine = reader.readLine(); // first line contains HTTP method and URI
-            String[] reqTokens = reqLine.split(" ");
-            if (reqTokens.length != 3) {
-                throw new IllegalArgumentException("Invalid HTTP request line");
-            }
-            HttpMethod method = HttpMethod.valueOf(reqTokens[0]);
-            String path = reqTokens[1];
-
-            Map<String, String> headers = new HashMap<String, String>();
-            String body = "";
-
-            String header = reader.readLine();
-            while (header.length() > 0) { // read up to "\r\n"
-                String[] tokens = header.split(": ");
-                headers.put(tokens[0], tokens[1]); // set header
-                header = reader.readLine();
+        if (to - from != 36) {
+            return null;
+        }
+        long mostSigBits = 0;
+        long leastSigBits = 0;
+        int digits = 0;
+        for (int i = from; i < to; i++) {
+            int offset = i - from;
+            byte b = bytes[i];
+            if (offset == 8 || offset == 13 || offset == 18 || offset == 23) {
+                if (b != '-') {
+                    return null;
+                }
+                continue;
             }
-
-            String bodyLine = reader.readLine();
-            while (bodyLine != null) { // read until the end of the request string
-                body += "\n" + bodyLine;
-                bodyLine = reader.readLine();
+            int value = Character.digit(b, 16);
+            if (value == -1) {
+                return null;
             }
-            if (body.length() > 0) {
-                body = body.substring(1); // remove preceding '\n'
+            if (digits < 16) {
+                mostSigBits = (mostSigBits << 4) | value;
+            } else {
+                leastSigBits = (leastSigBits << 4) | value;
             }
-            return new RestRequest(path, method, headers, body);
+            digits++;
         }
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    public static RestRequest parseRequestString(String request) throws IOException {
+        /**
+         * Takes in a string containing an HTTP request; returns a RestRequest
+         * object containing the parsed elements of the request string
+         * 
+         */
+        return RequestParser.parse(ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8)));
     }
 
     public String getPath() {
+        if (this.path == null) {
+            this.parsePath(this.raw, this.rawPathStart, this.rawPathEnd);
+        }
         return this.path;
     }
 
     public UUID getPathParameter() {
+        if (this.path == null) {
+            this.parsePath(this.raw, this.rawPathStart, this.rawPathEnd);
+        }
         return this.pathParameter;
     }
 
@@ -130,10 +182,131 @@ public class RestRequest {
     }
 
     public String getHeader(String header) {
-        return this.headers.get(header);
+        /**
+         * Returns the value of the given header, or null if the request
+         * doesn't have it; header names are case insensitive.
+         * 
+         */
+        if (this.raw == null) {
+            for (Map.Entry<String, String> entry : this.headers.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(header)) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+        for (int i = 0; i < this.rawHeaderCount; i++) {
+            int nameStart = this.rawHeaderOffsets[i * 4];
+            int nameEnd = this.rawHeaderOffsets[i * 4 + 1];
+            if (this.rawEqualsIgnoreCase(nameStart, nameEnd, header)) {
+                int valueStart = this.rawHeaderOffsets[i * 4 + 2];
+                int valueEnd = this.rawHeaderOffsets[i * 4 + 3];
+                return new String(this.raw, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private boolean rawEqualsIgnoreCase(int from, int to, String str) {
+        if (to - from != str.length()) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); i++) {
+            char a = (char) (this.raw[from + i] & 0xff);
+            char b = str.charAt(i);
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getQueryParameter(String name) {
+        /**
+         * Returns the (percent-decoded) value of the given query string
+         * parameter, or null if the request doesn't have it.
+         * 
+         */
+        byte[] bytes;
+        int from, to;
+        if (this.raw != null) {
+            if (this.rawQueryStart == -1) {
+                return null;
+            }
+            bytes = this.raw;
+            from = this.rawQueryStart;
+            to = this.rawQueryEnd;
+        } else {
+            if (this.query == null) {
+                return null;
+            }
+            bytes = this.query.getBytes(StandardCharsets.UTF_8);
+            from = 0;
+            to = bytes.length;
+        }
+
+        byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+        for (int pairStart = from; pairStart < to;) {
+            int pairEnd = pairStart;
+            while (pairEnd < to && bytes[pairEnd] != '&') {
+                pairEnd++;
+            }
+            int nameEnd = pairStart + encodedName.length;
+            if (nameEnd <= pairEnd && (nameEnd == pairEnd || bytes[nameEnd] == '=')) {
+                boolean matches = true;
+                for (int i = 0; i < encodedName.length && matches; i++) {
+                    matches = bytes[pairStart + i] == encodedName[i];
+                }
+                if (matches) {
+                    return percentDecode(bytes, Math.min(nameEnd + 1, pairEnd), pairEnd);
+                }
+            }
+            pairStart = pairEnd + 1;
+        }
+        return null;
+    }
+
+    private static String percentDecode(byte[] bytes, int from, int to) {
+        ByteArrayOutputStream decoded = null;
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b != '%' && b != '+') {
+                if (decoded != null) {
+                    decoded.write(b);
+                }
+                continue;
+            }
+            if (decoded == null) {
+                decoded = new ByteArrayOutputStream(to - from);
+                decoded.write(bytes, from, i - from);
+            }
+            if (b == '+') {
+                decoded.write(' ');
+            } else if (i + 2 < to && Character.digit(bytes[i + 1], 16) != -1
+                    && Character.digit(bytes[i + 2], 16) != -1) {
+                decoded.write(Character.digit(bytes[i + 1], 16) * 16 + Character.digit(bytes[i + 2], 16));
+                i += 2;
+            } else {
+                throw new IllegalArgumentException("Invalid percent-encoding in query string");
+            }
+        }
+        return decoded == null ? new String(bytes, from, to - from, StandardCharsets.UTF_8)
+                : new String(decoded.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String getQuery() {
+        if (this.query == null && this.raw != null && this.rawQueryStart != -1) {
+            this.query = new String(this.raw, this.rawQueryStart, this.rawQueryEnd - this.rawQueryStart,
+                    StandardCharsets.UTF_8);
+        }
+        return this.query;
     }
 
     public String getBody() {
+        if (this.body == null) {
+            this.body = new String(this.raw, this.rawBodyStart, this.rawBodyEnd - this.rawBodyStart,
+                    StandardCharsets.UTF_8);
+        }
         return this.body;
     }
 
@@ -142,17 +315,32 @@ public class RestRequest {
          * Convenience method to check if the requested path is "login"
          * 
          */
-        return this.path.equals("/login");
+        return this.getPath().equals("/login");
     }
 
     @Override
     public String toString() {
-        String ret = this.method.name() + " " + this.path.replace(this.URI_PARAMETER_TOKEN,
-                this.pathParameter != null ? this.pathParameter.toString() : "") + " HTTP/1.1\r\n";
-        for (Map.Entry<String, String> entry : this.headers.entrySet()) {
-            ret += entry.getKey() + ": " + entry.getValue() + "\r\n";
+        String ret = this.method.name() + " " + this.getPath().replace(URI_PARAMETER_TOKEN,
+                this.getPathParameter() != null ? this.getPathParameter().toString() : "")
+                + (this.getQuery() != null ? "?" + this.getQuery() : "") + " HTTP/1.1\r\n";
+        if (this.raw == null) {
+            for (Map.Entry<String, String> entry : this.headers.entrySet()) {
+                ret += entry.getKey() + ": " + entry.getValue() + "\r\n";
+            }
+        } else {
+            for (int i = 0; i < this.rawHeaderCount * 4; i += 4) {
+                String name = new String(this.raw, this.rawHeaderOffsets[i],
+                        this.rawHeaderOffsets[i + 1] - this.rawHeaderOffsets[i], StandardCharsets.UTF_8);
+                if (!name.equalsIgnoreCase("content-length")) {
+                    ret += name + ": " + new String(this.raw, this.rawHeaderOffsets[i + 2],
+                            this.rawHeaderOffsets[i + 3] - this.rawHeaderOffsets[i + 2], StandardCharsets.UTF_8)
+                            + "\r\n";
+                }
+            }
         }
-        ret += "\r\n" + this.body + "\r\n\r\n";
+        // the server relies on this header to tell where the body ends
+        ret += "content-length: " + this.getBody().getBytes(StandardCharsets.UTF_8).length + "\r\n";
+        ret += "\r\n" + this.getBody();
         return ret;
     }
 }
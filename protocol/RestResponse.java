@@ -4,6 +4,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -11,11 +13,15 @@ import java.util.Map;
 public class RestResponse implements Serializable {
     private final int code;
     private final String body;
+    // headers other than the ones every response carries (see ResponseEncoder)
     private final Map<String, String> headers;
-    private static final Map<Integer, String> verboseCodes = initMap();
+    // the body as it's to be sent, if it's been compressed; null otherwise
+    private final byte[] encodedBody;
+    static final Map<Integer, String> verboseCodes = initMap();
 
     private static Map<Integer, String> initMap() {
         Map<Integer, String> map = new HashMap<>();
+        map.put(101, "101 SWITCHING PROTOCOLS");
         map.put(200, "200 OK");
         map.put(201, "201 CREATED");
         map.put(204, "204 NO CONTENT");
@@ -24,31 +30,29 @@ public class RestResponse implements Serializable {
         map.put(403, "403 FORBIDDEN");
         map.put(404, "404 NOT FOUND");
         map.put(405, "405 METHOD NOT SUPPORTED");
+        map.put(413, "413 PAYLOAD TOO LARGE");
         map.put(500, "500 INTERNAL SERVER ERROR");
+        map.put(503, "503 SERVICE UNAVAILABLE");
         return Collections.unmodifiableMap(map);
     }
 
     public RestResponse(int code) {
-        this(code, new HashMap<String, String>(), "");
+        this(code, null, "");
     }
 
     public RestResponse(int code, String body) {
-        this(code, new HashMap<String, String>(), body);
+        this(code, null, body);
     }
 
     public RestResponse(int code, Map<String, String> headers, String body) {
+        this(code, headers, body, null);
+    }
+
+    RestResponse(int code, Map<String, String> headers, String body, byte[] encodedBody) {
         this.headers = headers;
         this.code = code;
         this.body = body;
-
-        // add default headers
-        this.headers.put("content-type", "application/json");
-        this.headers.put("content-length", String.valueOf(this.body.length()));
-
-        // for usage inside of browser
-        this.headers.put("Access-Control-Allow-Origin", "*");
-        this.headers.put("Access-Control-Allow-Methods", "*");
-        this.headers.put("Access-Control-Allow-Headers", "*");
+        this.encodedBody = encodedBody;
     }
 
     public int getCode() {
@@ -59,6 +63,28 @@ public class RestResponse implements Serializable {
         return this.body;
     }
 
+    byte[] getEncodedBody() {
+        return this.encodedBody;
+    }
+
+    public Map<String, String> getHeaders() {
+        return this.headers == null ? Collections.emptyMap() : this.headers;
+    }
+
+    public String getHeader(String header) {
+        /**
+         * Returns the value of the given header, or null if the response
+         * doesn't have it; header names are case insensitive.
+         * 
+         */
+        for (Map.Entry<String, String> entry : this.getHeaders().entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(header)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
     public static RestResponse fromString(String source) throws IOException {
         try (BufferedReader reader = new BufferedReader(new StringReader(source))) {
             String responseLine = reader.readLine();
@@ -89,7 +115,9 @@ public class RestResponse implements Serializable {
             String header = reader.readLine();
             while (header.length() > 0) { // read up to "\r\n"
                 String[] tokens = header.split(": ");
-                headers.put(tokens[0], tokens[1]); // set header
+                if (!ResponseEncoder.isDefaultHeader(tokens[0])) {
+                    headers.put(tokens[0], tokens[1]); // set header
+                }
                 header = reader.readLine();
             }
 
@@ -106,10 +134,6 @@ public class RestResponse implements Serializable {
         }
     }
 
-    private String getVerboseCode() {
-        return RestResponse.verboseCodes.get(this.code);
-    }
-
     public boolean isSuccessResponse() {
         return (this.code / 100) == 2;
     }
@@ -123,11 +147,6 @@ public class RestResponse implements Serializable {
     }
 
     public String toString() {
-        String ret = "HTTP/1.1 " + this.getVerboseCode() + "\r\n";
-        for (Map.Entry<String, String> entry : this.headers.entrySet()) {
-            ret += entry.getKey() + ": " + entry.getValue() + "\r\n";
-        }
-        ret += "\r\n" + this.body + "\r\n\r\n";
-        return ret;
+        return StandardCharsets.UTF_8.decode(ResponseEncoder.encode(this, ByteBuffer::allocate)).toString();
     }
 }
@@ -0,0 +1,123 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+
+public class WebSocketFrame {
+    /**
+     * A single WebSocket frame (RFC 6455, section 5).
+     * 
+     * Frames sent by the server are never masked; frames sent by clients
+     * always have to be, and are unmasked while being decoded.
+     * 
+     */
+    public static final int CONTINUATION = 0x0;
+    public static final int TEXT = 0x1;
+    public static final int BINARY = 0x2;
+    public static final int CLOSE = 0x8;
+    public static final int PING = 0x9;
+    public static final int PONG = 0xA;
+
+    private final boolean fin;
+    private final int opcode;
+    private final byte[] payload;
+
+    private WebSocketFrame(boolean fin, int opcode, byte[] payload) {
+        this.fin = fin;
+        this.opcode = opcode;
+        this.payload = payload;
+    }
+
+    public boolean isFinal() {
+        return this.fin;
+    }
+
+    public int getOpcode() {
+        return this.opcode;
+    }
+
+    public byte[] getPayload() {
+        return this.payload;
+    }
+
+    public boolean isControlFrame() {
+        return (this.opcode & 0x8) != 0;
+    }
+
+    public static byte[] encode(int opcode, byte[] payload) {
+        /**
+         * Returns a final, unmasked frame with the given opcode and payload.
+         * 
+         */
+        int headerLength = payload.length < 126 ? 2 : payload.length <= 0xFFFF ? 4 : 10;
+        ByteBuffer frame = ByteBuffer.allocate(headerLength + payload.length);
+        frame.put((byte) (0x80 | opcode));
+        if (payload.length < 126) {
+            frame.put((byte) payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            frame.put((byte) 126).putShort((short) payload.length);
+        } else {
+            frame.put((byte) 127).putLong(payload.length);
+        }
+        return frame.put(payload).array();
+    }
+
+    public static WebSocketFrame decode(ByteBuffer buf, int maxPayloadLength) {
+        /**
+         * Decodes the frame at the beginning of the buffer (in read mode),
+         * consuming its bytes; returns null, consuming nothing, if the frame
+         * hasn't been completely received yet.
+         * 
+         * Throws IllegalArgumentException if the frame isn't a valid client
+         * frame, or if its payload is longer than `maxPayloadLength`.
+         * 
+         */
+        int start = buf.position();
+        if (buf.remaining() < 2) {
+            return null;
+        }
+        int first = buf.get(start) & 0xFF;
+        int second = buf.get(start + 1) & 0xFF;
+        if ((first & 0x70) != 0) {
+            throw new IllegalArgumentException("Reserved bits set without a negotiated extension");
+        }
+        if ((second & 0x80) == 0) {
+            throw new IllegalArgumentException("Unmasked client frame");
+        }
+        boolean fin = (first & 0x80) != 0;
+        int opcode = first & 0x0F;
+
+        long payloadLength = second & 0x7F;
+        int headerLength = 2;
+        if (payloadLength == 126) {
+            if (buf.remaining() < 4) {
+                return null;
+            }
+            payloadLength = buf.getShort(start + 2) & 0xFFFF;
+            headerLength = 4;
+        } else if (payloadLength == 127) {
+            if (buf.remaining() < 10) {
+                return null;
+            }
+            payloadLength = buf.getLong(start + 2);
+            headerLength = 10;
+        }
+        if (payloadLength < 0 || payloadLength > maxPayloadLength) {
+            throw new IllegalArgumentException("Frame too large");
+        }
+        if ((opcode & 0x8) != 0 && (payloadLength > 125 || !fin)) {
+            throw new IllegalArgumentException("Invalid control frame");
+        }
+
+        // 4 bytes of masking key follow the length
+        if (buf.remaining() < headerLength + 4 + payloadLength) {
+            return null;
+        }
+        int maskOffset = start + headerLength;
+        byte[] payload = new byte[(int) payloadLength];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (buf.get(maskOffset + 4 + i) ^ buf.get(maskOffset + (i & 3)));
+        }
+        buf.position(maskOffset + 4 + payload.length);
+        return new WebSocketFrame(fin, opcode, payload);
+    }
+}
@@ -0,0 +1,62 @@
+package protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.function.Supplier;
+
+public class WebSocketUpgradeResponse extends RestResponse {
+    /**
+     * Response completing a WebSocket opening handshake: once it's been
+     * written, the connection carries WebSocket frames, and the server
+     * pushes through it the events published for `subscriber`.
+     * 
+     * `initialMessage`, if not null, supplies an encoded frame written right
+     * after the handshake, before any event: it's only called once the
+     * connection has been subscribed to the events, so that it can take a
+     * snapshot of what they update without missing any of them.
+     * 
+     */
+    private static final String HANDSHAKE_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final String subscriber;
+    private final String acceptKey;
+    private final Supplier<byte[]> initialMessage;
+
+    public WebSocketUpgradeResponse(String subscriber, String webSocketKey, Supplier<byte[]> initialMessage) {
+        super(101);
+        this.subscriber = subscriber;
+        this.acceptKey = computeAcceptKey(webSocketKey);
+        this.initialMessage = initialMessage;
+    }
+
+    public String getSubscriber() {
+        return this.subscriber;
+    }
+
+    public String getAcceptKey() {
+        return this.acceptKey;
+    }
+
+    public byte[] getInitialMessage() {
+        return this.initialMessage == null ? null : this.initialMessage.get();
+    }
+
+    private static String computeAcceptKey(String webSocketKey) {
+        /**
+         * The accept key proves to the client that the server understood its
+         * handshake: it's the base64 encoded SHA-1 hash of the key sent by
+         * the client followed by a fixed GUID.
+         * 
+         */
+        MessageDigest md = null;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            assert false; // never reached
+        }
+        byte[] digest = md.digest((webSocketKey.trim() + HANDSHAKE_GUID).getBytes(StandardCharsets.US_ASCII));
+        return Base64.getEncoder().encodeToString(digest);
+    }
+}
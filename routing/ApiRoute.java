@@ -20,6 +20,10 @@ public class ApiRoute {
         return this.path;
     }
 
+    public Map<HttpMethod, String> getActions() {
+        return this.actions;
+    }
+
     public String getMethodAction(HttpMethod method) {
         return this.actions.get(method);
     }
@@ -1,66 +1,184 @@
 package routing;
 
-import java.lang.reflect.Method;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.EnumMap;
+import java.util.Map;
 
 import protocol.AuthenticatedRestRequest;
+import protocol.HttpMethod;
 import protocol.RestRequest;
+import protocol.RestResponse;
 import services.SocialNetworkService;
-import exceptions.MethodNotSupportedException;
-import exceptions.RouteNotFoundException;
 
 public class ApiRouter {
-    Set<ApiRoute> routes = new HashSet<ApiRoute>();
+    /**
+     * Routes requests to the SocialNetworkService handlers declared in the
+     * API schema.
+     * 
+     * Routes are compiled into a trie with a node for each path segment when
+     * the router is built, and each handler name is bound to the handler
+     * method right away: a schema naming a handler that doesn't exist is
+     * rejected at startup, and resolving a request only takes a walk down
+     * the trie.
+     * 
+     */
+    private static final String PARAMETER_SEGMENT = "<id>";
+    private static final MethodType HANDLER_TYPE = MethodType.methodType(RestResponse.class,
+            AuthenticatedRestRequest.class);
 
-    public ApiRouter(ApiRoute[] routes) {
-        this.routes = new HashSet<ApiRoute>(Arrays.asList(routes));
-    }
+    // responses are immutable, so these are shared by all unroutable requests
+    private static final RouteHandler ROUTE_NOT_FOUND = new RouteHandler(new RestResponse(404));
+    private static final RouteHandler METHOD_NOT_SUPPORTED = new RouteHandler(new RestResponse(405));
 
-    private ApiRoute resolveRoute(String requestPath) {
-        return this.routes
-                .stream()
-                .filter(route -> requestPath.equals(route.getPath()))
-                .findFirst()
-                .orElse(null);
-    }
+    private final Node root = new Node();
 
-    public Method getRequestHandler(RestRequest request) throws MethodNotSupportedException, RouteNotFoundException {
+    private static class Node {
         /**
-         * Takes in a RestRequest object and uses it to look up the name of
-         * the handler method to execute based on the requested path and http
-         * method.
-         * 
-         * Upon success, returns the Method that SocialNetworkService
-         * will call to handle the client's request.
+         * A path segment: literal segments are usually one or two per node,
+         * so they're scanned in place instead of being looked up in a map,
+         * which would take a substring of the path per segment.
          * 
-         * Throws RouteNotFoundException if no route in the router matches that of
-         * the request; throws MethodNotSupportedException if the matched route
-         * doesn't have a handler for the request http method.
+         * The path parameter segment gets a child of its own.
          * 
          */
+        private String[] segments = new String[0];
+        private Node[] children = new Node[0];
+        private Node parameterChild;
+        private final Map<HttpMethod, RouteHandler> handlers = new EnumMap<>(HttpMethod.class);
 
-        Class<?> serviceClass = SocialNetworkService.class;
+        private Node getChild(String path, int start, int end) {
+            int length = end - start;
+            for (int i = 0; i < this.segments.length; i++) {
+                if (this.segments[i].length() == length && path.regionMatches(start, this.segments[i], 0, length)) {
+                    return this.children[i];
+                }
+            }
+            if (length == PARAMETER_SEGMENT.length() && path.startsWith(PARAMETER_SEGMENT, start)) {
+                return this.parameterChild;
+            }
+            return null;
+        }
 
-        ApiRoute matchingRoute = this.resolveRoute(request.getPath());
+        private Node addChild(String segment) {
+            if (segment.equals(PARAMETER_SEGMENT)) {
+                if (this.parameterChild == null) {
+                    this.parameterChild = new Node();
+                }
+                return this.parameterChild;
+            }
+            for (int i = 0; i < this.segments.length; i++) {
+                if (this.segments[i].equals(segment)) {
+                    return this.children[i];
+                }
+            }
+            this.segments = Arrays.copyOf(this.segments, this.segments.length + 1);
+            this.children = Arrays.copyOf(this.children, this.children.length + 1);
+            this.segments[this.segments.length - 1] = segment;
+            return this.children[this.children.length - 1] = new Node();
+        }
+    }
 
-        if (matchingRoute == null) {
-            throw new RouteNotFoundException();
+    public ApiRouter(ApiRoute[] routes, SocialNetworkService service) {
+        /**
+         * Throws IllegalArgumentException if a route is malformed, declared
+         * twice for the same HTTP method, or names a handler that
+         * SocialNetworkService doesn't have.
+         * 
+         */
+        for (ApiRoute route : routes) {
+            if (!route.getPath().startsWith("/")) {
+                throw new IllegalArgumentException("Route path must start with '/': " + route.getPath());
+            }
+            Node node = this.root;
+            for (String segment : route.getPath().substring(1).split("/", -1)) {
+                node = node.addChild(segment);
+            }
+            for (Map.Entry<HttpMethod, String> action : route.getActions().entrySet()) {
+                if (node.handlers.put(action.getKey(), bindHandler(action.getValue(), service)) != null) {
+                    throw new IllegalArgumentException(
+                            "Duplicate route: " + action.getKey() + " " + route.getPath());
+                }
+            }
         }
+    }
 
-        Method handler = null;
+    private static RouteHandler bindHandler(String handlerName, SocialNetworkService service) {
+        /**
+         * Looks up the handler method with the given name and turns it into
+         * an implementation of RouteHandler.Invoker bound to the service,
+         * which the JIT can inline like any other call.
+         * 
+         */
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle handler;
+        try {
+            handler = lookup.findVirtual(SocialNetworkService.class, handlerName, HANDLER_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Unknown request handler: " + handlerName, e);
+        }
         try {
-            // find handler method name based on the HTTP method of the request
-            String handlerName = matchingRoute.getMethodAction(request.getMethod());
-            if (handlerName == null) {
-                // matched route doesn't support the requested HTTP method
-                throw new MethodNotSupportedException();
+            RouteHandler.Invoker invoker = (RouteHandler.Invoker) LambdaMetafactory.metafactory(
+                    lookup,
+                    "invoke",
+                    MethodType.methodType(RouteHandler.Invoker.class, SocialNetworkService.class),
+                    HANDLER_TYPE,
+                    handler,
+                    HANDLER_TYPE)
+                    .getTarget()
+                    .invoke(service);
+            return new RouteHandler(handlerName, invoker);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to bind request handler " + handlerName, e);
+        }
+    }
+
+    private Node resolveRoute(String requestPath) {
+        /**
+         * Returns the trie node matching the given path, or null if there is
+         * none; the path parameter, if any, has already been replaced by its
+         * placeholder segment by RestRequest.
+         * 
+         */
+        if (requestPath.isEmpty() || requestPath.charAt(0) != '/') {
+            return null;
+        }
+        Node node = this.root;
+        int segmentStart = 1;
+        while (true) {
+            int segmentEnd = requestPath.indexOf('/', segmentStart);
+            if (segmentEnd == -1) {
+                return node.getChild(requestPath, segmentStart, requestPath.length());
             }
-            handler = serviceClass.getMethod(handlerName, AuthenticatedRestRequest.class);
-        } catch (NoSuchMethodException | SecurityException e) {
-            e.printStackTrace();
-            assert false; // this is never supposed to happen
+            node = node.getChild(requestPath, segmentStart, segmentEnd);
+            if (node == null) {
+                return null;
+            }
+            segmentStart = segmentEnd + 1;
+        }
+    }
+
+    public RouteHandler getRequestHandler(RestRequest request) {
+        /**
+         * Takes in a RestRequest object and uses it to look up the handler
+         * to execute based on the requested path and http method.
+         * 
+         * If no route in the router matches that of the request, the returned
+         * handler has a 404 error response; if the matched route doesn't have
+         * a handler for the request http method, it has a 405 one.
+         * 
+         */
+        Node node = this.resolveRoute(request.getPath());
+        if (node == null || node.handlers.isEmpty()) {
+            return ROUTE_NOT_FOUND;
+        }
+        RouteHandler handler = node.handlers.get(request.getMethod());
+        if (handler == null) {
+            // matched route doesn't support the requested HTTP method
+            return METHOD_NOT_SUPPORTED;
         }
         return handler;
     }
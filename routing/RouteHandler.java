@@ -0,0 +1,53 @@
+package routing;
+
+import protocol.AuthenticatedRestRequest;
+import protocol.RestResponse;
+
+public class RouteHandler {
+    /**
+     * A handler method of SocialNetworkService, bound to the service instance
+     * once and for all when the router is built, so that invoking it is a
+     * plain interface call rather than a reflective one.
+     * 
+     * The router also resolves requests it has no handler for to a
+     * RouteHandler, which only carries the error response to send back.
+     * 
+     */
+    private final String name;
+    private final Invoker invoker;
+    private final RestResponse errorResponse;
+
+    @FunctionalInterface
+    interface Invoker {
+        RestResponse invoke(AuthenticatedRestRequest request);
+    }
+
+    RouteHandler(String name, Invoker invoker) {
+        this.name = name;
+        this.invoker = invoker;
+        this.errorResponse = null;
+    }
+
+    RouteHandler(RestResponse errorResponse) {
+        this.name = null;
+        this.invoker = request -> errorResponse;
+        this.errorResponse = errorResponse;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public RestResponse getErrorResponse() {
+        /**
+         * Returns the response to send back without invoking anything if the
+         * request couldn't be routed to a handler, or null if it could.
+         * 
+         */
+        return this.errorResponse;
+    }
+
+    public RestResponse invoke(AuthenticatedRestRequest request) {
+        return this.invoker.invoke(request);
+    }
+}
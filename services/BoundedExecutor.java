@@ -0,0 +1,71 @@
+package services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BoundedExecutor implements Executor {
+    /**
+     * Fixed-size thread pool with a bounded task queue.
+     * 
+     * Unlike the common ForkJoinPool, a task submitted while all threads are
+     * busy and the queue is full isn't accepted: `execute()` throws a
+     * RejectedExecutionException right away, so callers can shed load
+     * instead of letting work pile up.
+     * 
+     * Keeps track of how many tasks have been rejected, which together with
+     * the current queue length is reported in the server statistics.
+     * 
+     */
+    private final String name;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public BoundedExecutor(String name, int threads, int queueDepth) {
+        this.name = name;
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = (runnable) -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(queueDepth, 1)), threadFactory,
+                (runnable, executor) -> {
+                    this.rejectedCount.incrementAndGet();
+                    throw new RejectedExecutionException(name + " queue is full");
+                });
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        this.pool.execute(task);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getQueueLength() {
+        return this.pool.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return this.pool.getActiveCount();
+    }
+
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.name + ": active=" + this.getActiveCount() + ", queued=" + this.getQueueLength()
+                + ", rejected=" + this.getRejectedCount();
+    }
+}
@@ -0,0 +1,98 @@
+package services;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BufferPool {
+    /**
+     * Thread-safe pool of reusable ByteBuffers.
+     * 
+     * Buffers are grouped in power-of-two size classes, starting from
+     * `minCapacity`: a request for n bytes is served by the smallest class
+     * that can hold n bytes. At most `maxPooledPerClass` idle buffers are
+     * retained for each class, and `maxRetainedBytes` bytes in all: buffers
+     * released beyond that are left to the garbage collector, so that a
+     * burst of large buffers isn't held on to for good.
+     * 
+     */
+    private final int minCapacity;
+    private final int maxPooledPerClass;
+    private final long maxRetainedBytes;
+    private final boolean direct;
+    private final Queue<ByteBuffer>[] freeLists;
+    private final AtomicInteger[] freeCounts;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int minCapacity, int maxCapacity, int maxPooledPerClass, long maxRetainedBytes,
+            boolean direct) {
+        this.minCapacity = Integer.highestOneBit(Math.max(minCapacity, 64) - 1) << 1;
+        this.maxPooledPerClass = maxPooledPerClass;
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.direct = direct;
+
+        int classCount = this.getSizeClass(Math.max(maxCapacity, this.minCapacity)) + 1;
+        this.freeLists = (Queue<ByteBuffer>[]) new Queue<?>[classCount];
+        this.freeCounts = new AtomicInteger[classCount];
+        for (int i = 0; i < classCount; i++) {
+            this.freeLists[i] = new ConcurrentLinkedQueue<>();
+            this.freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    private int getSizeClass(int capacity) {
+        if (capacity <= this.minCapacity) {
+            return 0;
+        }
+        // number of doublings needed to go from minCapacity to capacity
+        return 32 - Integer.numberOfLeadingZeros((capacity - 1) / this.minCapacity);
+    }
+
+    public ByteBuffer acquire(int capacity) {
+        /**
+         * Returns a cleared buffer that can hold at least `capacity` bytes.
+         * 
+         */
+        int sizeClass = this.getSizeClass(capacity);
+        if (sizeClass >= this.freeLists.length) {
+            // too big to be pooled
+            return this.allocate(capacity);
+        }
+        ByteBuffer buf = this.freeLists[sizeClass].poll();
+        if (buf == null) {
+            return this.allocate(this.minCapacity << sizeClass);
+        }
+        this.freeCounts[sizeClass].decrementAndGet();
+        this.retainedBytes.addAndGet(-buf.capacity());
+        buf.clear();
+        return buf;
+    }
+
+    public void release(ByteBuffer buf) {
+        if (buf == null || buf.isDirect() != this.direct) {
+            return;
+        }
+        int sizeClass = this.getSizeClass(buf.capacity());
+        if (sizeClass >= this.freeLists.length || buf.capacity() != this.minCapacity << sizeClass) {
+            // not a buffer handed out by this pool
+            return;
+        }
+        if (this.freeCounts[sizeClass].incrementAndGet() > this.maxPooledPerClass) {
+            this.freeCounts[sizeClass].decrementAndGet();
+            return;
+        }
+        if (this.retainedBytes.addAndGet(buf.capacity()) > this.maxRetainedBytes) {
+            this.retainedBytes.addAndGet(-buf.capacity());
+            this.freeCounts[sizeClass].decrementAndGet();
+            return;
+        }
+        this.freeLists[sizeClass].add(buf);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
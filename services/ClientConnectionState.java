@@ -0,0 +1,363 @@
+package services;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import exceptions.RequestTooLargeException;
+import protocol.RestResponse;
+import protocol.WebSocketFrame;
+
+class ClientConnectionState {
+    /**
+     * Per-connection bookkeeping attached to each client SelectionKey.
+     * 
+     * Every instance is owned by exactly one Reactor, the one whose selector
+     * the connection is registered with.
+     * 
+     * Incoming bytes are accumulated in a buffer borrowed from a BufferPool,
+     * which grows as needed up to the maximum request size and is given back
+     * to the pool as soon as it holds no partial request. Outgoing responses
+     * are queued in buffers borrowed from another pool, each given back once
+     * it's been written.
+     * 
+     */
+    private static final int INITIAL_READ_CAPACITY = 4096 * 2;
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+
+    private final BufferPool readBufferPool;
+    private final BufferPool outputBufferPool;
+    private final int maxRequestSize;
+
+    // accumulated, not yet framed request bytes (in write mode); null when empty
+    private ByteBuffer readBuffer;
+    // offset from which to resume looking for the end of the headers
+    private int headerScanOffset = 0;
+    // total size of the request at the head of the buffer, once its headers are complete
+    private int pendingRequestSize = -1;
+
+    // sequence number of the next request read from this connection, and
+    // of the next response to be written back to it
+    private long nextRequestSequence = 0;
+    private long nextResponseSequence = 0;
+    // responses that are ready but can't be written until the responses to
+    // the requests that came before them are, keyed by sequence number
+    private final Map<Long, RestResponse> reorderBuffer = new HashMap<>();
+
+    // responses waiting to be written, in the order they're to be written in
+    private final Deque<ByteBuffer> outputQueue = new ArrayDeque<>();
+    private long queuedOutputBytes = 0;
+
+    // last time anything was read from or written to this connection
+    long lastActivity;
+    // last time some of the queued output was written, or the output queue
+    // stopped being empty
+    long lastWriteProgress;
+    boolean readingSuspended = false;
+    boolean closeAfterWrite = false;
+    // once the connection has been turned into a push channel (an event
+    // stream or a WebSocket): the user whose events are pushed through it,
+    // and the callback subscribed for them
+    String pushChannelUser = null;
+    boolean webSocket = false;
+    Consumer<EventHub.Event> eventSubscriber = null;
+
+    ClientConnectionState(BufferPool readBufferPool, BufferPool outputBufferPool, int maxRequestSize) {
+        this.readBufferPool = readBufferPool;
+        this.outputBufferPool = outputBufferPool;
+        this.maxRequestSize = maxRequestSize;
+    }
+
+    ByteBuffer getReadBuffer() {
+        /**
+         * Returns the buffer that the next read from the socket should go into,
+         * making sure it has room for at least one more byte.
+         * 
+         */
+        if (this.readBuffer == null) {
+            this.readBuffer = this.readBufferPool.acquire(INITIAL_READ_CAPACITY);
+        } else if (!this.readBuffer.hasRemaining()) {
+            ByteBuffer grown = this.readBufferPool.acquire(this.readBuffer.capacity() * 2);
+            this.readBuffer.flip();
+            grown.put(this.readBuffer);
+            this.readBufferPool.release(this.readBuffer);
+            this.readBuffer = grown;
+        }
+        return this.readBuffer;
+    }
+
+    ByteBuffer nextRequest() throws RequestTooLargeException {
+        /**
+         * Looks for a complete request among the accumulated bytes: a request
+         * is complete once its headers (terminated by an empty line) and
+         * `content-length` bytes of body have been received.
+         * 
+         * Returns the bytes of the complete request, removing them from the
+         * buffer, or null if more bytes are needed; the returned buffer is a
+         * copy, so it stays valid after the read buffer is reused.
+         * 
+         * Throws RequestTooLargeException as soon as it's known that the
+         * request exceeds the maximum request size (i.e. without waiting for
+         * the body); throws IllegalArgumentException if the request has an
+         * invalid `content-length` header.
+         * 
+         */
+        if (this.readBuffer == null) {
+            return null;
+        }
+        byte[] bytes = this.readBuffer.array();
+        int base = this.readBuffer.arrayOffset();
+        int available = this.readBuffer.position();
+
+        // tolerate empty lines in between requests
+        int start = 0;
+        while (start < available && (bytes[base + start] == '\r' || bytes[base + start] == '\n')) {
+            start++;
+        }
+
+        if (this.pendingRequestSize == -1) {
+            int headersEnd = -1;
+            for (int i = Math.max(start, this.headerScanOffset); i + 3 < available; i++) {
+                if (bytes[base + i] == '\r' && bytes[base + i + 1] == '\n'
+                        && bytes[base + i + 2] == '\r' && bytes[base + i + 3] == '\n') {
+                    headersEnd = i + 4;
+                    break;
+                }
+            }
+            if (headersEnd == -1) {
+                if (available - start > this.maxRequestSize) {
+                    throw new RequestTooLargeException();
+                }
+                this.headerScanOffset = Math.max(start, available - 3);
+                this.discard(start);
+                return null;
+            }
+
+            long requestSize = headersEnd - start + this.getContentLength(bytes, base + start, base + headersEnd);
+            if (requestSize > this.maxRequestSize) {
+                throw new RequestTooLargeException();
+            }
+            this.pendingRequestSize = (int) requestSize;
+        }
+
+        if (available - start < this.pendingRequestSize) {
+            // body not fully received yet
+            this.discard(start);
+            return null;
+        }
+
+        int requestSize = this.pendingRequestSize;
+        ByteBuffer request = ByteBuffer.wrap(Arrays.copyOfRange(bytes, base + start, base + start + requestSize));
+        this.headerScanOffset = 0;
+        this.pendingRequestSize = -1;
+        this.discard(start + requestSize);
+        return request;
+    }
+
+    private long getContentLength(byte[] bytes, int from, int to) {
+        /**
+         * Scans the header lines in bytes[from, to) for a `content-length`
+         * header (case insensitive); returns its value, or 0 if absent.
+         * 
+         */
+        for (int lineStart = from; lineStart < to;) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            if (this.startsWithIgnoreCase(bytes, lineStart, lineEnd, CONTENT_LENGTH)
+                    && lineStart + CONTENT_LENGTH.length < lineEnd
+                    && bytes[lineStart + CONTENT_LENGTH.length] == ':') {
+                long value = 0;
+                boolean hasDigits = false;
+                for (int i = lineStart + CONTENT_LENGTH.length + 1; i < lineEnd; i++) {
+                    byte b = bytes[i];
+                    if (b >= '0' && b <= '9') {
+                        value = value * 10 + (b - '0');
+                        hasDigits = true;
+                        if (value > Integer.MAX_VALUE) {
+                            return value;
+                        }
+                    } else if (b != ' ' && b != '\t' && b != '\r') {
+                        throw new IllegalArgumentException("Invalid content-length header");
+                    }
+                }
+                if (!hasDigits) {
+                    throw new IllegalArgumentException("Invalid content-length header");
+                }
+                return value;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return 0;
+    }
+
+    private boolean startsWithIgnoreCase(byte[] bytes, int from, int to, byte[] lowercasePrefix) {
+        if (to - from < lowercasePrefix.length) {
+            return false;
+        }
+        for (int i = 0; i < lowercasePrefix.length; i++) {
+            byte b = bytes[from + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowercasePrefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void discard(int count) {
+        /**
+         * Drops the first `count` accumulated bytes; the buffer is given back
+         * to the pool if nothing is left in it.
+         * 
+         */
+        if (count == 0) {
+            return;
+        }
+        if (count == this.readBuffer.position()) {
+            this.releaseReadBuffer();
+            return;
+        }
+        this.readBuffer.flip();
+        this.readBuffer.position(count);
+        this.readBuffer.compact();
+        this.headerScanOffset = Math.max(this.headerScanOffset - count, 0);
+    }
+
+    long nextRequestSequence() {
+        /**
+         * Assigns the next sequence number to a request that's just been read;
+         * its response will be written back only after the responses to all
+         * requests with lower sequence numbers.
+         * 
+         */
+        return this.nextRequestSequence++;
+    }
+
+    void completeResponse(long sequence, RestResponse response) {
+        this.reorderBuffer.put(sequence, response);
+    }
+
+    RestResponse pollNextResponse() {
+        /**
+         * Returns the response that's next in request order if it's ready,
+         * removing it from the reorder buffer; otherwise returns null.
+         * 
+         */
+        RestResponse response = this.reorderBuffer.remove(this.nextResponseSequence);
+        if (response != null) {
+            this.nextResponseSequence++;
+        }
+        return response;
+    }
+
+    boolean hasPendingResponses() {
+        /**
+         * Returns true if some request read from this connection hasn't had its
+         * response queued for writing yet.
+         * 
+         */
+        return this.nextResponseSequence != this.nextRequestSequence;
+    }
+
+    void enqueueOutput(ByteBuffer buf) {
+        this.outputQueue.addLast(buf);
+        this.queuedOutputBytes += buf.remaining();
+    }
+
+    boolean hasQueuedOutput() {
+        return !this.outputQueue.isEmpty();
+    }
+
+    long getQueuedOutputBytes() {
+        return this.queuedOutputBytes;
+    }
+
+    int peekOutput(ByteBuffer[] dst) {
+        /**
+         * Fills `dst` with the buffers at the head of the output queue, ready
+         * for a gathering write; returns how many were put in it.
+         * 
+         */
+        int count = 0;
+        Iterator<ByteBuffer> it = this.outputQueue.iterator();
+        while (count < dst.length && it.hasNext()) {
+            dst[count++] = it.next();
+        }
+        return count;
+    }
+
+    void consumeOutput(long written) {
+        /**
+         * Accounts for `written` bytes having been written to the socket,
+         * dropping the buffers that have been fully written.
+         * 
+         */
+        this.queuedOutputBytes -= written;
+        while (!this.outputQueue.isEmpty() && !this.outputQueue.peekFirst().hasRemaining()) {
+            this.outputBufferPool.release(this.outputQueue.removeFirst());
+        }
+    }
+
+    WebSocketFrame nextWebSocketFrame() {
+        /**
+         * Returns the next complete WebSocket frame among the accumulated
+         * bytes, removing it from the buffer, or null if more bytes are needed.
+         * 
+         * Throws IllegalArgumentException if the client sent an invalid frame.
+         * 
+         */
+        if (this.readBuffer == null) {
+            return null;
+        }
+        WebSocketFrame frame;
+        this.readBuffer.flip();
+        try {
+            frame = WebSocketFrame.decode(this.readBuffer, this.maxRequestSize);
+        } finally {
+            this.readBuffer.compact();
+        }
+        if (this.readBuffer.position() == 0) {
+            this.releaseReadBuffer();
+        }
+        return frame;
+    }
+
+    void discardInput() {
+        /**
+         * Drops whatever has been read from the connection so far.
+         * 
+         */
+        this.releaseReadBuffer();
+    }
+
+    void releaseBuffers() {
+        /**
+         * Drops everything buffered for this connection; called once it's closed.
+         * 
+         */
+        this.reorderBuffer.clear();
+        for (ByteBuffer buf : this.outputQueue) {
+            this.outputBufferPool.release(buf);
+        }
+        this.outputQueue.clear();
+        this.queuedOutputBytes = 0;
+        this.releaseReadBuffer();
+    }
+
+    private void releaseReadBuffer() {
+        this.readBufferPool.release(this.readBuffer);
+        this.readBuffer = null;
+        this.headerScanOffset = 0;
+        this.pendingRequestSize = -1;
+    }
+}
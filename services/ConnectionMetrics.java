@@ -0,0 +1,37 @@
+package services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConnectionMetrics {
+    /**
+     * Connection counters shared by all the reactors of a server.
+     * 
+     */
+    private final AtomicLong openConnections = new AtomicLong();
+    private final AtomicLong reapedConnections = new AtomicLong();
+
+    void connectionOpened() {
+        this.openConnections.incrementAndGet();
+    }
+
+    void connectionClosed() {
+        this.openConnections.decrementAndGet();
+    }
+
+    void connectionReaped() {
+        this.reapedConnections.incrementAndGet();
+    }
+
+    public long getOpenConnections() {
+        return this.openConnections.get();
+    }
+
+    public long getReapedConnections() {
+        return this.reapedConnections.get();
+    }
+
+    @Override
+    public String toString() {
+        return "connections: open=" + this.getOpenConnections() + ", reaped=" + this.getReapedConnections();
+    }
+}
@@ -7,19 +7,24 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 
-import auth.AuthenticationToken;
 import auth.Password;
-import client.IClientFollowerNotificationService;
 import entities.Comment;
 import entities.Post;
 import entities.Reaction;
@@ -30,15 +35,39 @@ import services.DataStoreService.OperationStatus.Status;
 
 public class DataStoreService {
     private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Set<Post>> userPosts = new ConcurrentHashMap<>();
-    @JsonIgnore
-    private final ConcurrentHashMap<AuthenticationToken, User> sessions = new ConcurrentHashMap<>();
+    // sets that can be read, and persisted, while they're changed; declared as
+    // such so that they're also restored as such
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<Post>> userPosts = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<UUID, Post> posts = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Set<String>> followers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<String>> followers = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Wallet> wallets = new ConcurrentHashMap<>();
-    @JsonIgnore
-    private final ConcurrentHashMap<String, IClientFollowerNotificationService> notificationCallbacks = new ConcurrentHashMap<>();
     private String storageFileName = "";
+    // users having each (lowercase) tag, by username; rebuilt from `users`
+    // when the store is restored
+    @JsonIgnore
+    private final ConcurrentHashMap<String, NavigableSet<String>> usersByTag = new ConcurrentHashMap<>();
+    // ids of the rewins of each post, by the id of the post; rebuilt from
+    // `posts` when the store is restored
+    @JsonIgnore
+    private final ConcurrentHashMap<UUID, Set<UUID>> rewins = new ConcurrentHashMap<>();
+    // users followed by each user: the reverse of `followers`, rebuilt from it
+    // when the store is restored
+    @JsonIgnore
+    private final ConcurrentHashMap<String, Set<String>> following = new ConcurrentHashMap<>();
+    // posts in the feed of each user, except for those of hot authors;
+    // rebuilt from the above when the store is restored
+    @JsonIgnore
+    private final ConcurrentHashMap<String, NavigableSet<Post>> timelines = new ConcurrentHashMap<>();
+    // authors whose posts are merged into the feeds when these are read,
+    // instead of being added to the timeline of each of their followers
+    @JsonIgnore
+    private final Set<String> hotAuthors = ConcurrentHashMap.newKeySet();
+    // past this many followers, an author's new posts are no longer added to
+    // their followers' timelines
+    private static final int HOT_AUTHOR_THRESHOLD = 1000;
+    // notifies the interested users of the changes made to the store
+    @JsonIgnore
+    private final EventHub eventHub = new EventHub();
 
     public static class OperationStatus {
         /**
@@ -70,6 +99,7 @@ public class DataStoreService {
         try {
             File sourceFile = new File(source);
             DataStoreService ret = new Serializer<DataStoreService>().parse(sourceFile, DataStoreService.class);
+            ret.buildIndexes();
             ret.startStatePersistenceThread();
             return ret;
         } catch (IOException | NullPointerException e) {
@@ -144,6 +174,40 @@ public class DataStoreService {
         this.addFollower("admin", "user1");
     }
 
+    private void buildIndexes() {
+        /**
+         * Rebuilds the indexes, which aren't persisted, from the users and
+         * their posts and followers.
+         * 
+         */
+        this.users.forEach((username, user) -> {
+            this.timelines.put(username, new ConcurrentSkipListSet<>());
+            this.following.put(username, new ConcurrentSkipListSet<>());
+            this.indexTags(user);
+        });
+        this.posts.values().forEach(post -> {
+            if (post.isRewin()) {
+                this.indexRewin(post);
+            }
+        });
+        this.followers.forEach((author, followerSet) -> {
+            followerSet.forEach(follower -> this.following.get(follower).add(author));
+            Set<Post> authored = this.userPosts.get(author);
+            this.timelines.get(author).addAll(authored);
+            if (followerSet.size() > HOT_AUTHOR_THRESHOLD) {
+                this.hotAuthors.add(author);
+                return;
+            }
+            for (String follower : followerSet) {
+                this.timelines.get(follower).addAll(authored);
+            }
+        });
+    }
+
+    public EventHub getEventHub() {
+        return this.eventHub;
+    }
+
     public User registerUser(String username, Set<String> tags, Password password) {
         /**
          * Attempts to associate a new user to the given username.
@@ -160,59 +224,77 @@ public class DataStoreService {
         // operations because even if more threads attempted to register a user
         // with the same username at the same time, at this point all but one
         // of them have returned false
-        this.userPosts.put(username, new TreeSet<Post>());
-        this.followers.put(username, new TreeSet<String>());
+        this.userPosts.put(username, new ConcurrentSkipListSet<>());
+        this.followers.put(username, new ConcurrentSkipListSet<>());
         this.wallets.put(username, new Wallet());
+        this.timelines.put(username, new ConcurrentSkipListSet<>());
+        this.following.put(username, new ConcurrentSkipListSet<>());
+        this.indexTags(newUser);
         return newUser;
     }
 
-    public void setUserToken(User user, AuthenticationToken token) {
-        /**
-         * Binds a user (via their username) to the given authentication
-         * token.
-         * 
-         */
-        this.sessions.put(token, user);
-    }
-
-    public boolean deleteUserToken(AuthenticationToken token, String username) {
-        OperationStatus status = new OperationStatus();
-        status.status = Status.NOT_FOUND;
-        this.sessions.computeIfPresent(token, (__, user) -> {
-            if (user.getUsername().equals(username)) {
-                status.status = Status.OK;
-                return null;
-            }
-            status.status = Status.ILLEGAL_OPERATION;
-            return user;
-        });
-        return status.status == Status.OK;
-    }
-
-    public User getUserFromToken(AuthenticationToken token) {
-        return this.sessions.get(token);
-    }
-
-    public User getUser(AuthenticationToken token) {
-        return this.sessions.get(token);
+    private void indexTags(User user) {
+        for (String tag : user.getTags()) {
+            this.usersByTag.computeIfAbsent(tag, __ -> new ConcurrentSkipListSet<>()).add(user.getUsername());
+        }
     }
 
     public User getUser(String username) {
         return this.users.get(username);
     }
 
-    public Set<User> getCompatibleUsers(String requestingUsername) {
-        Set<User> ret = new HashSet<>();
+    public List<User> getCompatibleUsers(String requestingUsername, String after, int offset, int limit) {
+        /**
+         * Returns the users having at least one tag in common with the given
+         * user, the user included, in order of username: `limit` of them at
+         * most, starting after the username `after` (if not null) and skipping
+         * the first `offset`.
+         * 
+         * The users having each tag of the given user are already sorted, so
+         * they're merged skipping duplicates, and only the users before the
+         * end of the page are visited.
+         * 
+         */
         User requestingUser = this.getUser(requestingUsername);
+        if (requestingUser == null) {
+            return null;
+        }
+        List<Iterator<String>> postings = new ArrayList<>();
+        for (String tag : requestingUser.getTags()) {
+            NavigableSet<String> usernames = this.usersByTag.get(tag);
+            if (usernames != null) {
+                postings.add((after == null ? usernames : usernames.tailSet(after, false)).iterator());
+            }
+        }
+        // next username of each tag, or null once all have been visited
+        String[] heads = new String[postings.size()];
+        for (int i = 0; i < heads.length; i++) {
+            heads[i] = postings.get(i).hasNext() ? postings.get(i).next() : null;
+        }
 
-        this.users.forEach((_username, user) -> {
-            if (user.isCompatibleWith(requestingUser)) {
-                // if the requested username (A) is in the user's (B) follower
-                // set, then this user is followed by the requested username
-                // (A follows B)
-                ret.add(user);
+        List<User> ret = new ArrayList<>();
+        int skipped = 0;
+        while (ret.size() < limit) {
+            String next = null;
+            for (String head : heads) {
+                if (head != null && (next == null || head.compareTo(next) < 0)) {
+                    next = head;
+                }
             }
-        });
+            if (next == null) {
+                break;
+            }
+            for (int i = 0; i < heads.length; i++) {
+                if (next.equals(heads[i])) {
+                    heads[i] = postings.get(i).hasNext() ? postings.get(i).next() : null;
+                }
+            }
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                ret.add(this.getUser(next));
+            }
+        }
         return ret;
     }
 
@@ -223,18 +305,13 @@ public class DataStoreService {
     }
 
     public Set<User> getUserFollowing(String username) {
-        Set<User> following = new HashSet<>();
-
-        this.followers.forEach((user, followerSet) -> {
-            if (followerSet.contains(username)) {
-                // if the requested username (A) is in the user's (B) follower
-                // set, then this user is followed by the requested username
-                // (A follows B)
-                following.add(this.getUser(user));
-            }
-        });
-
-        return following;
+        Set<String> followedUsers = this.following.get(username);
+        if (followedUsers == null) {
+            return null;
+        }
+        Set<User> ret = new HashSet<>();
+        followedUsers.forEach(user -> ret.add(this.getUser(user)));
+        return ret;
     }
 
     @JsonIgnore
@@ -242,43 +319,151 @@ public class DataStoreService {
         return this.users.keySet();
     }
 
-    public Set<Post> getUserPosts(String username) {
+    public NavigableSet<Post> getUserPosts(String username) {
         return this.userPosts.get(username);
     }
 
     public boolean addFollower(String username, String newFollower) {
+        /**
+         * The timelines of an author's followers, and the users followed by
+         * them, are only changed holding the lock on the author's follower
+         * set: the follow graph is always updated in both directions at once,
+         * and timelines can't miss a post published while someone starts or
+         * stops following the author.
+         * 
+         */
         return this.followers.computeIfPresent(username, (__, followerSet) -> {
-            followerSet.add(newFollower);
+            if (followerSet.add(newFollower)) {
+                this.following.get(newFollower).add(username);
+                if (followerSet.size() > HOT_AUTHOR_THRESHOLD) {
+                    this.hotAuthors.add(username);
+                } else {
+                    this.timelines.get(newFollower).addAll(this.userPosts.get(username));
+                }
+            }
             return followerSet;
         }) != null;
     }
 
     public boolean removeFollower(String username, String removedFollower) {
         return this.followers.computeIfPresent(username, (__, followerSet) -> {
-            followerSet.remove(removedFollower);
+            if (followerSet.remove(removedFollower)) {
+                this.following.get(removedFollower).remove(username);
+                // a post being deleted is still among the author's posts until
+                // it's removed from the timelines; hot authors may have posts
+                // in the timeline too, from before they were hot
+                NavigableSet<Post> timeline = this.timelines.get(removedFollower);
+                for (Post post : this.userPosts.get(username)) {
+                    timeline.remove(post);
+                }
+            }
             return followerSet;
         }) != null;
     }
 
-    public Set<Post> getUserFeed(String username) {
-        Set<Post> feed = new TreeSet<>();
+    public List<Post> getUserFeed(String username, Post after, int limit) {
+        /**
+         * Returns the posts of the given user and of the users they follow,
+         * newest first: `limit` of them at most, starting after `after` (if
+         * not null), i.e. from the posts older than it.
+         * 
+         * That's the user's timeline, merged with the posts of the hot
+         * authors they follow: each of these is already sorted, so only the
+         * posts before the end of the page are visited.
+         * 
+         */
+        NavigableSet<Post> timeline = this.timelines.get(username);
+        if (timeline == null) {
+            return null;
+        }
+        List<Iterator<Post>> sources = new ArrayList<>();
+        sources.add((after == null ? timeline : timeline.headSet(after, false)).descendingIterator());
+        for (String author : this.following.get(username)) {
+            if (this.hotAuthors.contains(author)) {
+                NavigableSet<Post> posts = this.userPosts.get(author);
+                sources.add((after == null ? posts : posts.headSet(after, false)).descendingIterator());
+            }
+        }
+        // next post of each source, or null once all have been visited
+        Post[] heads = new Post[sources.size()];
+        for (int i = 0; i < heads.length; i++) {
+            heads[i] = sources.get(i).hasNext() ? sources.get(i).next() : null;
+        }
 
-        this.followers.forEach((user, followerSet) -> {
-            if (followerSet.contains(username) || user.equals(username)) {
-                // current user is in the follow set of requested username;
-                // therefore their posts are in the user's feed
-                feed.addAll(this.getUserPosts(user));
+        List<Post> ret = new ArrayList<>();
+        while (ret.size() < limit) {
+            Post next = null;
+            for (Post head : heads) {
+                if (head != null && (next == null || head.compareTo(next) > 0)) {
+                    next = head;
+                }
             }
-        });
+            if (next == null) {
+                break;
+            }
+            // a hot author's post may also be in the timeline, from before
+            // they were hot
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] != null && heads[i].compareTo(next) == 0) {
+                    heads[i] = sources.get(i).hasNext() ? sources.get(i).next() : null;
+                }
+            }
+            ret.add(next);
+        }
+        return ret;
+    }
 
-        return feed;
+    public boolean isInFeed(String username, Post post) {
+        /**
+         * Tells whether the given post is in the feed of the given user,
+         * without going through the feed.
+         * 
+         */
+        if (post.getAuthor().equals(username)) {
+            return true;
+        }
+        Set<String> followerSet = this.followers.get(post.getAuthor());
+        return followerSet != null && followerSet.contains(username);
     }
 
     public void addPost(String username, Post newPost) {
-        this.userPosts.computeIfPresent(username, (__, postSet) -> {
+        if (this.userPosts.computeIfPresent(username, (__, postSet) -> {
             postSet.add(newPost);
             this.posts.put(newPost.getId(), newPost);
             return postSet;
+        }) != null) {
+            this.followers.computeIfPresent(username, (__, followerSet) -> {
+                if (!this.posts.containsKey(newPost.getId())) {
+                    // already deleted, and removed from the timelines
+                    return followerSet;
+                }
+                this.timelines.get(username).add(newPost);
+                if (!this.hotAuthors.contains(username)) {
+                    for (String follower : followerSet) {
+                        this.timelines.get(follower).add(newPost);
+                    }
+                }
+                return followerSet;
+            });
+            // the new post shows up in the feed of all of the author's followers
+            this.eventHub.publish(this.followers.get(username), EventHub.NEW_POST, newPost);
+
+            if (newPost.isRewin()) {
+                this.indexRewin(newPost);
+                if (!this.posts.containsKey(newPost.getRewinedPost().getId())) {
+                    // the original was deleted in the meantime, possibly
+                    // before this rewin could be found in the index
+                    this.deletePost(newPost.getId(), username);
+                }
+            }
+        }
+    }
+
+    private void indexRewin(Post rewin) {
+        this.rewins.compute(rewin.getRewinedPost().getId(), (__, rewinIds) -> {
+            Set<UUID> ret = rewinIds == null ? new HashSet<>() : rewinIds;
+            ret.add(rewin.getId());
+            return ret;
         });
     }
 
@@ -287,96 +472,143 @@ public class DataStoreService {
     }
 
     public OperationStatus deletePost(UUID id, String fromUser) {
+        /**
+         * Deletes the given post, provided it was written by the given user,
+         * along with its rewins; these are found through the rewin index and
+         * deleted once the post is no longer locked.
+         * 
+         */
         OperationStatus status = new OperationStatus();
-        Set<Post> chainedDeletionSet = new HashSet<>();
+        List<Post> deleted = new ArrayList<>(1);
 
         this.posts.computeIfPresent(id, (__, toDelete) -> {
-            try {
-                // first try to remove post from the user's post set:
-                // this will fail if the post doesn't belong to the user
-                this.userPosts.computeIfPresent(fromUser, (user, postSet) -> {
-                    if (!postSet.remove(toDelete)) {
-                        // the user who requested the deletion isn't
-                        // the author of the specified toDelete
-                        throw new RuntimeException();
-                    }
-                    return postSet;
-                });
-            } catch (RuntimeException e) {
-                // report appropriate error depending on whether the post attempted to be
-                // deleted doesn't exist or the user who tried to delete it isn't its author
-                status.status = this.posts.get(id) == null ? Status.NOT_FOUND : Status.ILLEGAL_OPERATION;
-
-                // don't delete the post since the removal from
-                // the user's post set failed
+            // posts are added to their author's post set, so the author is
+            // checked directly: locking the post set while holding the post
+            // would deadlock with addPost, which does the opposite. The post
+            // is removed from the post set along with the timelines, see
+            // removeFollower
+            if (!toDelete.getAuthor().equals(fromUser)) {
+                // the user who requested the deletion isn't
+                // the author of the specified toDelete
+                status.status = Status.ILLEGAL_OPERATION;
                 return toDelete;
             }
 
-            // existence and ownership of the post were verified - now
-            // mark all rewins of that post for deletion
-            this.posts.forEach((postId, p) -> {
-                if (p.isRewin() && p.getRewinedPost().equals(toDelete)) {
-                    chainedDeletionSet.add(p);
-                }
-            });
+            // existence and ownership of the post were verified
+            deleted.add(toDelete);
             // returning null removes the mapping for this post from posts map
             return null;
         });
 
+        if (deleted.size() == 0) {
+            return status;
+        }
+        Post deletedPost = deleted.get(0);
+        this.removeFromTimelines(deletedPost);
+        if (deletedPost.isRewin()) {
+            this.rewins.computeIfPresent(deletedPost.getRewinedPost().getId(), (__, rewinIds) -> {
+                rewinIds.remove(id);
+                return rewinIds.isEmpty() ? null : rewinIds;
+            });
+        }
+
         // finally delete the rewins
-        for (Post rewin : chainedDeletionSet) {
-            this.deletePost(rewin.getId(), rewin.getAuthor());
+        Set<UUID> rewinIds = this.rewins.remove(id);
+        if (rewinIds != null) {
+            for (UUID rewinId : rewinIds) {
+                Post rewin = this.posts.get(rewinId);
+                if (rewin != null) {
+                    this.deletePost(rewinId, rewin.getAuthor());
+                }
+            }
         }
 
         return status;
     }
 
+    private void removeFromTimelines(Post post) {
+        /**
+         * Removes a deleted post from its author's post set and from the
+         * timelines of its author and of their followers, even if the author
+         * is hot: their posts may have been added to timelines before they
+         * became hot.
+         * 
+         */
+        this.followers.computeIfPresent(post.getAuthor(), (__, followerSet) -> {
+            this.userPosts.get(post.getAuthor()).remove(post);
+            this.timelines.get(post.getAuthor()).remove(post);
+            for (String follower : followerSet) {
+                this.timelines.get(follower).remove(post);
+            }
+            return followerSet;
+        });
+    }
+
     public OperationStatus addPostReaction(UUID postId, Reaction reaction) {
         OperationStatus status = new OperationStatus();
-        if (this.posts.computeIfPresent(postId, (__, post) -> {
-            if (!this.getUserFeed(reaction.getUser()).contains(post)) {
+        Post reactedPost = this.posts.computeIfPresent(postId, (__, post) -> {
+            if (!this.isInFeed(reaction.getUser(), post)) {
                 status.status = Status.NOT_FOUND;
             } else if (!post.addReaction(reaction)) {
                 status.status = Status.ILLEGAL_OPERATION;
             }
             return post;
-        }) == null) {
+        });
+        if (reactedPost == null) {
             status.status = Status.NOT_FOUND;
+        } else if (status.status == Status.OK) {
+            this.publishPostActivity(reactedPost, reaction.getUser(), EventHub.NEW_REACTION, "reaction", reaction);
         }
         return status;
     }
 
     public OperationStatus addPostComment(UUID postId, Comment comment) {
         OperationStatus status = new OperationStatus();
-        if (this.posts.computeIfPresent(postId, (__, post) -> {
-            if (!this.getUserFeed(comment.getUser()).contains(post)) {
+        Post commentedPost = this.posts.computeIfPresent(postId, (__, post) -> {
+            if (!this.isInFeed(comment.getUser(), post)) {
                 status.status = Status.NOT_FOUND;
             } else if (!post.addComment(comment)) {
                 status.status = Status.ILLEGAL_OPERATION;
             }
             return post;
-        }) == null) {
+        });
+        if (commentedPost == null) {
             status.status = Status.NOT_FOUND;
+        } else if (status.status == Status.OK) {
+            this.publishPostActivity(commentedPost, comment.getUser(), EventHub.NEW_COMMENT, "comment", comment);
         }
         return status;
     }
 
+    private void publishPostActivity(Post post, String fromUser, String eventType, String field, Object activity) {
+        /**
+         * Lets the author of a post know that someone else commented on or
+         * reacted to it.
+         * 
+         */
+        if (post.getAuthor().equals(fromUser)) {
+            return;
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("postId", post.getId());
+        data.put(field, activity);
+        this.eventHub.publish(post.getAuthor(), eventType, data);
+    }
+
     public Wallet getUserWallet(String username) {
         return this.wallets.get(username);
     }
 
     public void updateUserWallet(String username, double delta) {
-        this.wallets.computeIfPresent(username, (__, wallet) -> {
+        Wallet updatedWallet = this.wallets.computeIfPresent(username, (__, wallet) -> {
             wallet.addTransaction(delta);
             return wallet;
         });
-    }
-
-    public IClientFollowerNotificationService getUserCallbackReference(String username) {
-        return this.notificationCallbacks.get(username);
-    }
-
-    public void setUserCallbackReference(String username, IClientFollowerNotificationService ref) {
-        this.notificationCallbacks.put(username, ref);
+        if (updatedWallet != null) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("delta", delta);
+            data.put("balance", updatedWallet.getBalance());
+            this.eventHub.publish(username, EventHub.WALLET_UPDATE, data);
+        }
     }
 }
@@ -0,0 +1,160 @@
+package services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import protocol.WebSocketFrame;
+
+public class EventHub {
+    /**
+     * Delivers events about changes in the data store to the users they
+     * concern, through the push channels they have open with the server:
+     * Server-Sent Events streams and WebSockets.
+     * 
+     * A subscriber is just a callback receiving the events: the reactors
+     * subscribe one for each open push channel, which hands the event over
+     * to the reactor owning the connection, so no thread is ever tied to a
+     * subscriber.
+     * 
+     * Events are encoded at most once per format, no matter how many
+     * subscribers receive them, and not at all if nobody is subscribed to
+     * them.
+     * 
+     */
+    public static final String NEW_POST = "post";
+    public static final String NEW_COMMENT = "comment";
+    public static final String NEW_REACTION = "reaction";
+    public static final String WALLET_UPDATE = "wallet";
+    public static final String FOLLOWERS_UPDATE = "followers";
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            // same visibility the Serializer uses, but no indentation: in
+            // an event stream each data line must be a single line
+            .setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
+
+    private final ConcurrentHashMap<String, Set<Consumer<Event>>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    public static class Event {
+        /**
+         * An event published to some users, along with its encodings,
+         * computed the first time they're needed.
+         * 
+         */
+        private final String type;
+        private final Object data;
+        private String json;
+        private byte[] serverSentEvent;
+        private byte[] webSocketFrame;
+
+        public Event(String type, Object data) {
+            this.type = type;
+            this.data = data;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        private synchronized String getJson() {
+            if (this.json == null) {
+                try {
+                    this.json = mapper.writeValueAsString(this.data);
+                } catch (JsonProcessingException e) {
+                    e.printStackTrace();
+                    this.json = "null";
+                }
+            }
+            return this.json;
+        }
+
+        public synchronized byte[] asServerSentEvent() {
+            if (this.serverSentEvent == null) {
+                this.serverSentEvent = ("event: " + this.type + "\ndata: " + this.getJson() + "\n\n")
+                        .getBytes(StandardCharsets.UTF_8);
+            }
+            return this.serverSentEvent;
+        }
+
+        public synchronized byte[] asWebSocketFrame() {
+            /**
+             * Returns the event as a WebSocket text message, holding an object
+             * with the event type and its data: `{"type": ..., "data": ...}`.
+             * 
+             */
+            if (this.webSocketFrame == null) {
+                String message = "{\"type\":\"" + this.type + "\",\"data\":" + this.getJson() + "}";
+                this.webSocketFrame = WebSocketFrame.encode(WebSocketFrame.TEXT,
+                        message.getBytes(StandardCharsets.UTF_8));
+            }
+            return this.webSocketFrame;
+        }
+    }
+
+    public void subscribe(String username, Consumer<Event> subscriber) {
+        // added while holding the mapping, which unsubscribe may drop as soon
+        // as it's empty
+        this.subscribers.compute(username, (__, userSubscribers) -> {
+            if (userSubscribers == null) {
+                userSubscribers = ConcurrentHashMap.newKeySet();
+            }
+            userSubscribers.add(subscriber);
+            return userSubscribers;
+        });
+        this.subscriberCount.incrementAndGet();
+    }
+
+    public void unsubscribe(String username, Consumer<Event> subscriber) {
+        this.subscribers.computeIfPresent(username, (__, userSubscribers) -> {
+            if (userSubscribers.remove(subscriber)) {
+                this.subscriberCount.decrementAndGet();
+            }
+            // returning null removes the mapping once nobody is subscribed
+            return userSubscribers.isEmpty() ? null : userSubscribers;
+        });
+    }
+
+    public int getSubscriberCount() {
+        return this.subscriberCount.get();
+    }
+
+    public void publish(String username, String type, Object data) {
+        this.publish(Collections.singleton(username), type, data);
+    }
+
+    public void publish(Collection<String> usernames, String type, Object data) {
+        /**
+         * Sends an event of the given type to every subscriber of each of the
+         * given users; the data is sent as JSON.
+         * 
+         */
+        Event event = null;
+        for (String username : usernames) {
+            Set<Consumer<Event>> userSubscribers = this.subscribers.get(username);
+            if (userSubscribers == null) {
+                continue;
+            }
+            if (event == null) {
+                event = new Event(type, data);
+            }
+            for (Consumer<Event> subscriber : userSubscribers) {
+                subscriber.accept(event);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "push channels: open=" + this.getSubscriberCount();
+    }
+}
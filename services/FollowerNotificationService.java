@@ -1,42 +1,40 @@
 package services;
 
-import java.rmi.RemoteException;
-import java.rmi.server.RemoteServer;
+import java.util.HashSet;
+import java.util.Set;
 
-import auth.AuthenticationToken;
-import client.IClientFollowerNotificationService;
 import entities.User;
 
-public class FollowerNotificationService extends RemoteServer implements FollowerNotificationServiceInterface {
+public class FollowerNotificationService {
+    /**
+     * Lets users know when someone starts or stops following them, by
+     * publishing their updated follower list to the push channels (usually
+     * a WebSocket) they have open with the server.
+     * 
+     * Publishing never blocks: the events are written to the clients by the
+     * reactors owning their connections.
+     * 
+     */
     private final DataStoreService store;
 
     public FollowerNotificationService(DataStoreService store) {
         this.store = store;
     }
 
-    @Override
-    public void subscribe(IClientFollowerNotificationService client, AuthenticationToken token) throws RemoteException {
-        if (token == null || client == null) {
-            throw new IllegalArgumentException();
+    public Set<User> getFollowerList(String username) {
+        /**
+         * Returns the followers of the given user, as sent to clients: public
+         * information only.
+         * 
+         */
+        Set<User> followers = new HashSet<>();
+        for (User follower : this.store.getUserFollowers(username)) {
+            followers.add(new User(follower.getUsername(), follower.getTags()));
         }
-
-        User requestingUser = this.store.getUser(token);
-
-        if (requestingUser == null) {
-            throw new IllegalArgumentException();
-        }
-
-        this.store.setUserCallbackReference(requestingUser.getUsername(), client);
+        return followers;
     }
 
     public void notifyUser(String username) {
-        IClientFollowerNotificationService callbackRef = this.store.getUserCallbackReference(username);
-        try {
-            if (callbackRef != null) {
-                callbackRef.updateFollowerList(this.store.getUserFollowers(username));
-            }
-        } catch (RemoteException e) {
-            this.store.setUserCallbackReference(username, null);
-        }
+        this.store.getEventHub().publish(username, EventHub.FOLLOWERS_UPDATE, this.getFollowerList(username));
     }
 }
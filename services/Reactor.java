@@ -0,0 +1,557 @@
+package services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import exceptions.RequestTooLargeException;
+import protocol.DeferredResponse;
+import protocol.EventStreamResponse;
+import protocol.RequestParser;
+import protocol.ResponseEncoder;
+import protocol.RestRequest;
+import protocol.RestResponse;
+import protocol.WebSocketFrame;
+import protocol.WebSocketUpgradeResponse;
+
+class Reactor implements Runnable {
+    /**
+     * Event loop serving the client connections handed to it by the
+     * Server's acceptor.
+     * 
+     * Each reactor owns a Selector and runs on its own thread; every
+     * connection registered with it is read from and written to only by
+     * that thread, so the ClientConnectionState attached to its keys needs
+     * no further synchronization. Other threads (e.g. the ones running the
+     * request handlers) interact with a connection by submitting a task
+     * through `execute()`.
+     * 
+     * A connection that opened a push channel (an event stream or a
+     * WebSocket) stops being served requests: from then on the reactor only
+     * pushes through it the events published for its user, plus a heartbeat
+     * whenever it's been quiet for a while so that proxies and clients can
+     * tell it's still alive. Events are dropped with the whole connection if
+     * the client doesn't keep up with them.
+     * 
+     */
+    private static final int MAX_GATHERED_BUFFERS = 16;
+    // an event stream comment line, ignored by clients
+    private static final byte[] EVENT_STREAM_HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WEB_SOCKET_HEARTBEAT = WebSocketFrame.encode(WebSocketFrame.PING, new byte[0]);
+    // WebSocket close status codes
+    private static final int WEB_SOCKET_PROTOCOL_ERROR = 1002;
+    private static final int WEB_SOCKET_GOING_AWAY = 1001;
+
+    private final Server server;
+    private final Executor handlerExecutor;
+    private final BufferPool readBufferPool;
+    private final BufferPool outputBufferPool;
+    private final int maxRequestSize;
+    private final long outputHighWatermark;
+    private final long outputLowWatermark;
+    // push channels with more than this queued are dropped
+    private final long pushQueueLimit;
+    private final Selector selector;
+    private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private final ConnectionMetrics metrics;
+    private final EventHub eventHub;
+    // connections idle for longer than this are closed; 0 disables the reaper
+    private final long idleTimeout;
+    // event streams quiet for longer than this get a heartbeat; 0 disables them
+    private final long heartbeatInterval;
+    private final TimerWheel<SelectionKey> idleWheel;
+    // time at which the current iteration of the event loop started
+    private long now = System.currentTimeMillis();
+    private final ByteBuffer[] gatheredBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+
+    Reactor(Server server, Executor handlerExecutor, BufferPool readBufferPool, BufferPool outputBufferPool,
+            ConnectionMetrics metrics, EventHub eventHub, ServerConfig config) throws IOException {
+        this.server = server;
+        this.metrics = metrics;
+        this.eventHub = eventHub;
+        this.handlerExecutor = handlerExecutor;
+        this.readBufferPool = readBufferPool;
+        this.outputBufferPool = outputBufferPool;
+        this.maxRequestSize = config.getMaxRequestSize();
+        this.outputHighWatermark = config.getOutputHighWatermark();
+        this.outputLowWatermark = Math.min(config.getOutputLowWatermark(), config.getOutputHighWatermark());
+        this.pushQueueLimit = config.getPushQueueLimit();
+        this.selector = Selector.open();
+
+        this.idleTimeout = Math.max(config.getSktTimeout(), 0);
+        this.heartbeatInterval = Math.max(config.getEventHeartbeatInterval(), 0);
+        // check for idle connections about a hundred times per timeout period,
+        // so that they're closed at most 1% later than they should
+        long shortestPeriod = this.idleTimeout == 0 ? this.heartbeatInterval
+                : this.heartbeatInterval == 0 ? this.idleTimeout
+                        : Math.min(this.idleTimeout, this.heartbeatInterval);
+        this.idleWheel = shortestPeriod > 0
+                ? new TimerWheel<>(Math.max(shortestPeriod / 100, 10),
+                        Math.max(this.idleTimeout, this.heartbeatInterval), this.now)
+                : null;
+    }
+
+    void register(SocketChannel clientSkt) {
+        /**
+         * Hands a newly accepted connection over to this reactor.
+         * 
+         * Called from the acceptor thread: the channel is queued and
+         * registered by the reactor's own thread, since registering with a
+         * selector that's blocked in `select()` would block the acceptor.
+         * 
+         */
+        this.pendingRegistrations.add(clientSkt);
+        this.selector.wakeup();
+    }
+
+    void execute(Runnable task) {
+        /**
+         * Runs the given task on this reactor's thread, as soon as it's done
+         * with the current batch of ready keys.
+         * 
+         */
+        this.pendingTasks.add(task);
+        this.selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                // wake up at least once per tick to close idle connections
+                this.selector.select(this.idleWheel != null ? this.idleWheel.getTickMillis() : 0);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            this.now = System.currentTimeMillis();
+
+            this.registerPendingChannels();
+            this.runPendingTasks();
+            if (this.idleWheel != null) {
+                this.idleWheel.advance(this.now, this::reapIfIdle);
+            }
+
+            Iterator<SelectionKey> rdyKeys = this.selector.selectedKeys().iterator();
+            while (rdyKeys.hasNext()) {
+                SelectionKey currKey = rdyKeys.next();
+                rdyKeys.remove();
+                try {
+                    if (currKey.isReadable()) {
+                        this.readFromKey(currKey);
+                    }
+                    if (currKey.isValid() && currKey.isWritable()) {
+                        this.writeToKey(currKey);
+                    }
+                } catch (IOException | CancelledKeyException e) {
+                    // a client closed connection: close its channel
+                    this.closeKey(currKey);
+                }
+            }
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel clientSkt;
+        while ((clientSkt = this.pendingRegistrations.poll()) != null) {
+            try {
+                clientSkt.configureBlocking(false);
+                SelectionKey clientKey = clientSkt.register(this.selector, SelectionKey.OP_READ);
+
+                // will be used to keep track of not-yet-written responses for this client
+                ClientConnectionState state = new ClientConnectionState(this.readBufferPool, this.outputBufferPool,
+                        this.maxRequestSize);
+                state.lastActivity = this.now;
+                clientKey.attach(state);
+                this.metrics.connectionOpened();
+                if (this.idleTimeout > 0) {
+                    this.idleWheel.schedule(clientKey, this.now + this.idleTimeout);
+                }
+            } catch (ClosedChannelException e) {
+                // client went away before it could be registered
+                ;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = this.pendingTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void reapIfIdle(SelectionKey key) {
+        /**
+         * Called by the idle wheel when a connection's idle deadline may have
+         * passed: closes the connection if it really has been idle for the
+         * whole timeout, otherwise schedules the next check for when it would
+         * be.
+         * 
+         * A connection with output waiting to be written is only idle once
+         * none of it could be written for the whole timeout, i.e. the client
+         * stopped reading; one waiting for responses is idle once nothing has
+         * been read from it for the whole timeout, so that a response that
+         * never comes doesn't keep it open forever either.
+         * 
+         */
+        if (!key.isValid()) {
+            // already closed: just let it drop out of the wheel
+            return;
+        }
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+        if (this.idleTimeout > 0 && state.hasQueuedOutput()
+                && state.lastWriteProgress + this.idleTimeout <= this.now) {
+            // the output queued for it would otherwise be held forever
+            this.metrics.connectionReaped();
+            this.closeKey(key);
+            return;
+        }
+        if (state.pushChannelUser != null) {
+            // push channels are meant to stay quiet for long periods, so
+            // they're never reaped for that: just keep them alive
+            this.sendHeartbeatIfQuiet(key);
+            return;
+        }
+        long deadline = (state.hasQueuedOutput() ? state.lastWriteProgress : state.lastActivity)
+                + this.idleTimeout;
+        if (deadline > this.now) {
+            this.idleWheel.schedule(key, deadline);
+            return;
+        }
+        this.metrics.connectionReaped();
+        this.closeKey(key);
+    }
+
+    private void enqueueOutput(ClientConnectionState state, ByteBuffer buf) {
+        if (!state.hasQueuedOutput()) {
+            // the client has only been waited on from now
+            state.lastWriteProgress = this.now;
+        }
+        state.enqueueOutput(buf);
+    }
+
+    private void sendHeartbeatIfQuiet(SelectionKey key) {
+        if (this.heartbeatInterval == 0) {
+            // nothing else to do for this connection: let it drop out of the wheel
+            return;
+        }
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+        long deadline = state.lastActivity + this.heartbeatInterval;
+        if (deadline <= this.now) {
+            this.enqueueOutput(state, ByteBuffer.wrap(state.webSocket ? WEB_SOCKET_HEARTBEAT : EVENT_STREAM_HEARTBEAT));
+            this.updateInterestOps(key);
+            deadline = this.now + this.heartbeatInterval;
+        }
+        this.idleWheel.schedule(key, deadline);
+    }
+
+    private void startPushChannel(SelectionKey key, String username, boolean webSocket) {
+        /**
+         * Turns the connection into a push channel for the given user, once
+         * the response opening it has been queued: events published for the
+         * user are handed over to this reactor's thread and pushed through
+         * the connection by `pushEvent()`.
+         * 
+         */
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+        state.pushChannelUser = username;
+        state.webSocket = webSocket;
+        state.eventSubscriber = (event) -> this.execute(() -> this.pushEvent(key, event));
+        this.eventHub.subscribe(username, state.eventSubscriber);
+        if (this.idleTimeout == 0 && this.heartbeatInterval > 0) {
+            // not in the wheel yet
+            this.idleWheel.schedule(key, this.now + this.heartbeatInterval);
+        }
+    }
+
+    private void pushEvent(SelectionKey key, EventHub.Event event) {
+        if (!key.isValid()) {
+            return;
+        }
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+        if (state.closeAfterWrite) {
+            // WebSocket being closed
+            return;
+        }
+        if (state.getQueuedOutputBytes() > this.pushQueueLimit) {
+            // the client isn't keeping up with its events: rather than
+            // buffering them without limit, drop it; it can reconnect
+            this.closeKey(key);
+            return;
+        }
+        this.enqueueOutput(state,
+                ByteBuffer.wrap(state.webSocket ? event.asWebSocketFrame() : event.asServerSentEvent()));
+        this.updateInterestOps(key);
+    }
+
+    private void handleWebSocketFrame(SelectionKey key, WebSocketFrame frame) {
+        /**
+         * Answers the control frames sent by a WebSocket client; the channel
+         * only carries events from the server, so data frames are ignored.
+         * 
+         */
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+        switch (frame.getOpcode()) {
+            case WebSocketFrame.PING:
+                this.enqueueOutput(state,
+                        ByteBuffer.wrap(WebSocketFrame.encode(WebSocketFrame.PONG, frame.getPayload())));
+                break;
+            case WebSocketFrame.CLOSE:
+                // echo the status code (if any) back and close once it's sent
+                byte[] status = frame.getPayload().length >= 2 ? Arrays.copyOf(frame.getPayload(), 2) : new byte[0];
+                this.closeWebSocket(key, status);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void closeWebSocket(SelectionKey key, byte[] status) {
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+        this.enqueueOutput(state, ByteBuffer.wrap(WebSocketFrame.encode(WebSocketFrame.CLOSE, status)));
+        state.closeAfterWrite = true;
+        state.discardInput();
+    }
+
+    private static byte[] getWebSocketCloseStatus(int code) {
+        return new byte[] { (byte) (code >> 8), (byte) code };
+    }
+
+    private void closeKey(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        this.metrics.connectionClosed();
+        key.cancel();
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+        if (state.pushChannelUser != null) {
+            this.eventHub.unsubscribe(state.pushChannelUser, state.eventSubscriber);
+        }
+        state.releaseBuffers();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void updateInterestOps(SelectionKey key) {
+        /**
+         * Recomputes the interest set of a connection from its state: OP_WRITE
+         * is set for as long as there's queued output; OP_READ is dropped once
+         * the queued output grows past the high watermark and only restored
+         * once it has drained down to the low watermark, so that clients that
+         * don't read their responses can't make the server buffer without limit.
+         * 
+         */
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+        if (state.getQueuedOutputBytes() > this.outputHighWatermark) {
+            state.readingSuspended = true;
+        } else if (state.getQueuedOutputBytes() <= this.outputLowWatermark) {
+            state.readingSuspended = false;
+        }
+
+        int ops = 0;
+        if (!state.readingSuspended && !state.closeAfterWrite) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (state.hasQueuedOutput()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    private void sendResponse(SelectionKey key, long sequence, RestResponse response) {
+        /**
+         * Hands the response to the request with the given sequence number
+         * over to its connection. Responses are queued for writing strictly in
+         * request order: one that's ready before the responses to the requests
+         * preceding it waits in the connection's reorder buffer. Must be run
+         * on the reactor thread.
+         * 
+         */
+        if (!key.isValid()) {
+            // client went away while its request was being handled
+            return;
+        }
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+        state.completeResponse(sequence, response);
+
+        RestResponse nextResponse;
+        while ((nextResponse = state.pollNextResponse()) != null) {
+            if (state.pushChannelUser != null) {
+                // requests pipelined after the one that opened the push
+                // channel can't be answered: the channel never ends
+                continue;
+            }
+            // push channels are subscribed to before their response is
+            // encoded, so that the response can carry a snapshot taken after
+            // that, and no event published in between is missed
+            if (nextResponse instanceof EventStreamResponse) {
+                this.startPushChannel(key, ((EventStreamResponse) nextResponse).getSubscriber(), false);
+            } else if (nextResponse instanceof WebSocketUpgradeResponse) {
+                this.startPushChannel(key, ((WebSocketUpgradeResponse) nextResponse).getSubscriber(), true);
+            }
+            ByteBuffer encoded;
+            try {
+                encoded = ResponseEncoder.encode(nextResponse, this.outputBufferPool::acquire);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                // a push channel can't go on without its opening response
+                state.closeAfterWrite = state.pushChannelUser != null;
+                encoded = ResponseEncoder.encode(new RestResponse(500), this.outputBufferPool::acquire);
+            }
+            this.enqueueOutput(state, encoded);
+        }
+        this.updateInterestOps(key);
+    }
+
+    private void writeToKey(SelectionKey key) throws IOException {
+        SocketChannel clientSkt = (SocketChannel) key.channel();
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+
+        // write as much of the queued output as the socket will take right
+        // now, several buffers at a time; whatever is left is written on
+        // the next OP_WRITE event
+        while (state.hasQueuedOutput()) {
+            int count = state.peekOutput(this.gatheredBuffers);
+            long written = clientSkt.write(this.gatheredBuffers, 0, count);
+            if (written == 0) {
+                // socket send buffer is full
+                break;
+            }
+            state.consumeOutput(written);
+            state.lastActivity = this.now;
+            state.lastWriteProgress = this.now;
+        }
+        Arrays.fill(this.gatheredBuffers, null);
+
+        if (!state.hasQueuedOutput() && !state.hasPendingResponses() && state.closeAfterWrite) {
+            // the caller will catch this and close the connection
+            throw new IOException();
+        }
+        this.updateInterestOps(key);
+    }
+
+    private void readWebSocketFrames(SelectionKey key) {
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+        try {
+            WebSocketFrame frame;
+            while (!state.closeAfterWrite && (frame = state.nextWebSocketFrame()) != null) {
+                this.handleWebSocketFrame(key, frame);
+            }
+        } catch (IllegalArgumentException e) {
+            this.closeWebSocket(key, getWebSocketCloseStatus(WEB_SOCKET_PROTOCOL_ERROR));
+        }
+        this.updateInterestOps(key);
+    }
+
+    private void readFromKey(SelectionKey key) throws IOException {
+        SocketChannel clientSkt = (SocketChannel) key.channel();
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+
+        int readCount = clientSkt.read(state.getReadBuffer());
+        if (readCount == -1) { // no data was read, client closed connection
+            // the caller will catch this and remove the key from the readset
+            throw new IOException();
+        }
+        state.lastActivity = this.now;
+        if (state.webSocket) {
+            this.readWebSocketFrames(key);
+            return;
+        }
+        if (state.pushChannelUser != null) {
+            // event streams only go one way
+            state.discardInput();
+            return;
+        }
+
+        // dispatch every request that has been completely received so far;
+        // a partially received one stays in the connection's buffer until
+        // the rest of it arrives
+        ByteBuffer requestBytes;
+        while (true) {
+            try {
+                requestBytes = state.nextRequest();
+            } catch (RequestTooLargeException e) {
+                this.rejectRequest(key, new RestResponse(413));
+                return;
+            } catch (IllegalArgumentException e) {
+                this.rejectRequest(key, new RestResponse(400));
+                return;
+            }
+            if (requestBytes == null) {
+                break;
+            }
+
+            // every request gets its place in the response order before being
+            // dispatched, so that requests pipelined on the same connection
+            // can be handled concurrently but still answered in order
+            long sequence = state.nextRequestSequence();
+
+            RestRequest request;
+            try {
+                request = RequestParser.parse(requestBytes);
+            } catch (IllegalArgumentException e) {
+                // a malformed HTTP request was sent
+                this.sendResponse(key, sequence, new RestResponse(400));
+                continue;
+            }
+
+            try {
+                CompletableFuture
+                        // submit task to the server's handler executor
+                        .supplyAsync(() -> this.server.handleRequest(request), this.handlerExecutor)
+                        // run callback on task completion: the response is handed
+                        // back to this reactor's thread, which owns the connection
+                        .whenComplete((response, failure) -> {
+                            if (failure != null) {
+                                // the request must be answered all the same, or
+                                // the ones pipelined after it would wait forever
+                                failure.printStackTrace();
+                                this.execute(() -> this.sendResponse(key, sequence, new RestResponse(500)));
+                                return;
+                            }
+                            if (response instanceof DeferredResponse) {
+                                // the handler left the response to be completed elsewhere
+                                ((DeferredResponse) response).getResult().whenComplete((result, e) -> this.execute(
+                                        () -> this.sendResponse(key, sequence, e == null ? result : new RestResponse(500))));
+                                return;
+                            }
+                            this.execute(() -> this.sendResponse(key, sequence, response));
+                        });
+            } catch (RejectedExecutionException e) {
+                // the server is overloaded: shed the request right away
+                this.sendResponse(key, sequence, new RestResponse(503));
+            }
+        }
+    }
+
+    private void rejectRequest(SelectionKey key, RestResponse response) {
+        /**
+         * Answers with an error to a request that can't be framed: since
+         * there's no telling where the next request would begin, the
+         * connection is closed once the response is written.
+         * 
+         */
+        ClientConnectionState state = (ClientConnectionState) key.attachment();
+        state.closeAfterWrite = true;
+        this.sendResponse(key, state.nextRequestSequence(), response);
+    }
+}
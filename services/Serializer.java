@@ -22,6 +22,22 @@ public class Serializer<T> {
         }
     }
 
+    public String serialize(T obj, Class<?> view) {
+        /**
+         * Only serializes the properties included in the given view (see
+         * JsonView), along with the ones not annotated with any view.
+         * 
+         */
+        this.mapper.setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
+        this.mapper.enable(SerializationFeature.INDENT_OUTPUT);
+        try {
+            return mapper.writerWithView(view).writeValueAsString(obj);
+        } catch (JsonProcessingException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     public T parse(String source, Class<T> cls) throws JsonMappingException, JsonProcessingException {
         return mapper.readValue(source, this.mapper.getTypeFactory().constructType(cls));
     }
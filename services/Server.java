@@ -2,96 +2,149 @@ package services;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.concurrent.CompletableFuture;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 
 import auth.AuthenticationMiddleware;
-import exceptions.BadRequestException;
-import exceptions.InternalServerErrorException;
+import auth.SessionStore;
+import auth.PasswordHasher;
+import auth.TokenSigner;
 import exceptions.InvalidTokenException;
-import exceptions.MethodNotSupportedException;
 import exceptions.NoAuthenticationProvidedException;
-import exceptions.PermissionDeniedException;
-import exceptions.ResourceNotFoundException;
-import exceptions.RouteNotFoundException;
 import protocol.AuthenticatedRestRequest;
+import protocol.DeferredResponse;
 import protocol.HttpMethod;
+import protocol.ResponseCompressor;
 import protocol.RestRequest;
 import protocol.RestResponse;
 import routing.ApiRoute;
 import routing.ApiRouter;
+import routing.RouteHandler;
 
 public class Server {
-    private final int BUF_CAPACITY = 4096 * 2;
+    // larger encoded responses get a buffer of their own, left to the GC once written
+    private static final int OUTPUT_BUFFER_MAX_POOLED_CAPACITY = 1024 * 1024;
 
     private ApiRouter router;
     private final SocialNetworkService service;
     UserRegistrationService registrationService;
     FollowerNotificationService notificationService;
     private final AuthenticationMiddleware authMiddleware;
+    private final SessionStore sessions;
+    private final TokenSigner tokenSigner;
+    private final PasswordHasher passwordHasher;
     private ServerConfig config;
-    private Selector selector;
+    private final Executor handlerExecutor;
+    private final ConnectionMetrics connectionMetrics = new ConnectionMetrics();
+    private final EventHub eventHub;
+    // bounds the number of concurrent invocations of some handlers, by name
+    private final Map<String, Semaphore> routeSemaphores = new HashMap<>();
+    private Selector acceptSelector;
+    private Reactor[] reactors;
+    private int nextReactor = 0;
 
     public Server(File config, File apiSchema) throws IOException {
         this.loadConfig(config);
-        this.loadRouter(apiSchema);
 
         // restore previously existing data if a valid storage file is supplied;
         // otherwise initialize a new empty data store
         DataStoreService store = DataStoreService.restoreOrCreate(this.config.getStorageLocation());
 
         this.notificationService = new FollowerNotificationService(store);
+        this.sessions = new SessionStore(this.config.getSessionIdleTimeout(), this.config.getSessionLifetime(),
+                this.config.getMaxSessionsPerUser(), this.config.getMaxSessions());
+        this.tokenSigner = this.config.getTokenSigningKey().isEmpty() ? null
+                : new TokenSigner(Base64.getDecoder().decode(this.config.getTokenSigningKey()),
+                        this.config.getSessionLifetime());
+        this.passwordHasher = new PasswordHasher(new BoundedExecutor("password-hasher",
+                this.config.getPasswordHashThreads(), this.config.getPasswordHashQueueDepth()),
+                this.config.getPasswordHashIterations());
         this.service = new SocialNetworkService(
                 store,
+                this.sessions,
+                this.tokenSigner,
+                this.passwordHasher,
                 this.notificationService,
                 new WalletConversionService(),
                 this.config);
-        this.authMiddleware = new AuthenticationMiddleware(store);
-        this.registrationService = new UserRegistrationService(store);
+        this.loadRouter(apiSchema);
+        this.authMiddleware = new AuthenticationMiddleware(this.sessions, this.tokenSigner, store);
+        this.eventHub = store.getEventHub();
+        this.registrationService = new UserRegistrationService(store, this.passwordHasher);
+        this.handlerExecutor = this.createHandlerExecutor();
+        this.config.getRouteConcurrencyLimits().forEach(
+                (handlerName, limit) -> this.routeSemaphores.put(handlerName, new Semaphore(limit)));
 
         // start rewards service in a separate thread
         new Thread(new RewardIssuer(store, this.config.getTimeInBetweenRewards(),
                 this.config.getAuthorRewardPercentage(), this.config)).start();
     }
 
+    private Executor createHandlerExecutor() {
+        if (this.config.getHandlerExecutionMode().equals("virtual")) {
+            if (VirtualThreadExecutor.isSupported()) {
+                System.out.println("Running handlers on virtual threads");
+                return new VirtualThreadExecutor("handler-virtual-threads");
+            }
+            System.out.println("Virtual threads aren't supported by this JVM, using a thread pool for handlers");
+        }
+        return new BoundedExecutor("handler-executor", this.config.getHandlerThreads(),
+                this.config.getHandlerQueueDepth());
+    }
+
     private void loadConfig(File config) throws IOException {
         this.config = new Serializer<ServerConfig>().parse(config, ServerConfig.class);
     }
 
     private void loadRouter(File apiSchema) throws IOException {
-        this.router = new ApiRouter(new Serializer<ApiRoute[]>().parse(apiSchema, ApiRoute[].class));
-    }
-
-    private class ClientConnectionState {
-        RestResponse pendingResponse;
+        this.router = new ApiRouter(new Serializer<ApiRoute[]>().parse(apiSchema, ApiRoute[].class), this.service);
     }
 
     public void start() {
+        ServerSocketChannel srvSktChan = null;
         try {
-            ServerSocketChannel srvSktChan = ServerSocketChannel.open();
+            srvSktChan = ServerSocketChannel.open();
             ServerSocket skt = srvSktChan.socket();
-            this.selector = Selector.open();
+            this.acceptSelector = Selector.open();
 
             skt.bind(new InetSocketAddress(this.config.getServerAddr(), this.config.getTcpPort()));
             srvSktChan.configureBlocking(false);
-            srvSktChan.register(selector, SelectionKey.OP_ACCEPT);
+            srvSktChan.register(this.acceptSelector, SelectionKey.OP_ACCEPT);
+
+            // start the reactors that will serve the accepted connections
+            BufferPool readBufferPool = new BufferPool(4096 * 2, this.config.getMaxRequestSize() * 2, 256,
+                    this.config.getBufferPoolRetainedBytes(), false);
+            // responses are encoded straight into direct buffers, which the
+            // socket can write from without copying them first
+            BufferPool outputBufferPool = new BufferPool(4096, OUTPUT_BUFFER_MAX_POOLED_CAPACITY, 256,
+                    this.config.getBufferPoolRetainedBytes(), true);
+            this.reactors = new Reactor[Math.max(this.config.getReactorCount(), 1)];
+            for (int i = 0; i < this.reactors.length; i++) {
+                this.reactors[i] = new Reactor(this, this.handlerExecutor, readBufferPool, outputBufferPool,
+                        this.connectionMetrics, this.eventHub, this.config);
+                new Thread(this.reactors[i], "reactor-" + i).start();
+            }
+
+            this.startStatsReporter();
+            this.startSessionSweeper();
 
             System.out.println("Server address: " + this.config.getServerAddr());
-            System.out.println("Listening on port " + this.config.getTcpPort() + "...");
+            System.out.println("Listening on port " + this.config.getTcpPort() + " with "
+                    + this.reactors.length + " reactor(s)...");
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
@@ -99,138 +152,137 @@ public class Server {
 
         // export RMI object to expose user registration service
         UserRegistrationInterface userRegistrationStub;
-        FollowerNotificationServiceInterface followerNotificationStub;
         Registry registry;
 
         try {
             // expose RMI services
             userRegistrationStub = (UserRegistrationInterface) UnicastRemoteObject
                     .exportObject(this.registrationService, this.config.getRegistryPort());
-            followerNotificationStub = (FollowerNotificationServiceInterface) UnicastRemoteObject
-                    .exportObject(this.notificationService, this.config.getRegistryPort());
 
             LocateRegistry.createRegistry(this.config.getRegistryPort());
             registry = LocateRegistry.getRegistry(this.config.getRegistryPort());
 
             registry.rebind("USER-REGISTRATION-SERVICE", userRegistrationStub);
-            registry.rebind("FOLLOWER-NOTIFICATION-SERVICE", followerNotificationStub);
         } catch (RemoteException e) {
             e.printStackTrace();
             System.exit(1);
         }
 
+        // the calling thread becomes the acceptor: it only accepts new
+        // connections and hands them over to the reactors in round-robin order
         while (true) {
             try {
-                this.selector.select();
+                this.acceptSelector.select();
             } catch (IOException e) {
                 e.printStackTrace();
                 System.exit(1);
             }
 
-            Iterator<SelectionKey> rdyKeys = selector.selectedKeys().iterator();
+            Iterator<SelectionKey> rdyKeys = this.acceptSelector.selectedKeys().iterator();
             while (rdyKeys.hasNext()) {
                 SelectionKey currKey = rdyKeys.next();
                 rdyKeys.remove();
-                try {
-                    if (currKey.isAcceptable()) {
-                        this.acceptKey(currKey);
-                    } else if (currKey.isReadable()) {
-                        this.readFromKey(currKey);
-                    } else if (currKey.isWritable()) {
-                        this.writeToKey(currKey);
-                    }
-                } catch (IOException e) {
-                    currKey.cancel();
-                    try {
-                        // a client closed connection: close its channel
-                        currKey.channel().close();
-                    } catch (IOException e1) {
-                        e1.printStackTrace();
-                        System.exit(1);
-                    }
+                if (currKey.isAcceptable()) {
+                    this.acceptKey(srvSktChan);
                 }
             }
         }
     }
 
-    private void acceptKey(SelectionKey key) throws IOException {
-        ServerSocketChannel channel = (ServerSocketChannel) key.channel();
-        SocketChannel clientSkt = channel.accept();
-
-        clientSkt.configureBlocking(false);
-        SelectionKey clientKey = clientSkt.register(this.selector, SelectionKey.OP_READ);
-
-        // will be used to keep track of not-yet-written responses for this client
-        clientKey.attach(new ClientConnectionState());
+    private void startStatsReporter() {
+        if (this.config.getStatsInterval() <= 0) {
+            return;
+        }
+        // start anonymous thread that periodically prints the server statistics
+        Thread reporter = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(this.config.getStatsInterval() * 1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                System.out.println("[stats] " + this.handlerExecutor);
+                System.out.println("[stats] " + this.passwordHasher);
+                System.out.println("[stats] " + this.connectionMetrics);
+                System.out.println("[stats] " + this.eventHub);
+                System.out.println("[stats] " + this.sessions);
+            }
+        });
+        reporter.setDaemon(true);
+        reporter.start();
     }
 
-    private void writeToKey(SelectionKey key) throws IOException {
-        SocketChannel clientSkt = (SocketChannel) key.channel();
-
-        // get previously stored response to be written to client
-        RestResponse response = ((ClientConnectionState) key.attachment()).pendingResponse;
-        ByteBuffer buf = ByteBuffer.wrap(response.toString().getBytes("UTF-8"));
-        clientSkt.write(buf);
-
-        // remove OP_WRITE from the interest set and replace it with OP_READ
-        // as there isn't anything to be written to the client, and we're now
-        // ready to read again from it
-        key.interestOps(SelectionKey.OP_READ);
+    private void startSessionSweeper() {
+        if (this.config.getSessionSweepInterval() <= 0) {
+            // expired sessions are still removed when they're looked up
+            return;
+        }
+        Thread sweeper = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(this.config.getSessionSweepInterval());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                this.sessions.sweep();
+                if (this.tokenSigner != null) {
+                    this.tokenSigner.sweep();
+                }
+            }
+        });
+        sweeper.setDaemon(true);
+        sweeper.start();
     }
 
-    private void readFromKey(SelectionKey key) throws IOException {
-        SocketChannel clientSkt = (SocketChannel) key.channel();
-        ByteBuffer buf = ByteBuffer.allocate(this.BUF_CAPACITY);
-        int readCount = clientSkt.read(buf);
-        if (readCount == -1) { // no data was read, client closed connection
-            // the caller will catch this and remove the key from the readset
-            throw new IOException();
+    private void acceptKey(ServerSocketChannel channel) {
+        SocketChannel clientSkt;
+        try {
+            clientSkt = channel.accept();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (clientSkt == null) {
+            // the pending connection was reset before it could be accepted
+            return;
         }
-        buf.flip();
 
-        String reqString = StandardCharsets.UTF_8.decode(buf).toString();
-        RestRequest request;
+        Reactor reactor = this.reactors[this.nextReactor];
+        this.nextReactor = (this.nextReactor + 1) % this.reactors.length;
+        reactor.register(clientSkt);
+    }
 
-        try {
-            request = RestRequest.parseRequestString(reqString);
-
-            CompletableFuture
-                    // submit task to internally-managed thread pool
-                    .supplyAsync(() -> handleRequest(request))
-                    // run callback on task completion
-                    .thenAccept((response) -> {
-                        // store the pending response so it can be written as soon
-                        // as the client becomes writable
-                        ((ClientConnectionState) key.attachment()).pendingResponse = response;
-
-                        // remove OP_READ from the interest set and replace it with OP_WRITE
-                        // as there isn't anything to be read from the client, but we now
-                        // have a response to write to it
-                        key.interestOps(SelectionKey.OP_WRITE);
-
-                        // wake up selector from async callback
-                        this.selector.wakeup();
-                    });
-        } catch (IllegalArgumentException e) {
-            // a malformed HTTP request was sent
-            ((ClientConnectionState) key.attachment()).pendingResponse = new RestResponse(400);
-            key.interestOps(SelectionKey.OP_WRITE);
+    RestResponse handleRequest(RestRequest request) {
+        /**
+         * Handles an incoming API request, compressing the response body if
+         * the client accepts it and the body is large enough; runs on the
+         * handler executor, so that reactor threads never compress anything.
+         * 
+         * Deferred responses are compressed on whichever thread completes
+         * them, which is never a reactor thread either.
+         * 
+         */
+        RestResponse response = this.dispatchRequest(request);
+        if (response instanceof DeferredResponse) {
+            return new DeferredResponse(((DeferredResponse) response).getResult().thenApply(
+                    result -> ResponseCompressor.compress(request, result, this.config.getCompressionThreshold())));
         }
+        return ResponseCompressor.compress(request, response, this.config.getCompressionThreshold());
     }
 
-    private RestResponse handleRequest(RestRequest request) {
+    private RestResponse dispatchRequest(RestRequest request) {
         /**
          * Main method to handle an incoming API request.
          * 
          * The flow is as follows:
          * 1. the request path and method are used by the ApiRouter to get
-         * the handler method for the request
+         * the handler for the request
          * 2. the request is authenticated by the AuthenticationMiddleware
          * 3. the handler is invoked on the resulting AuthenticatedRestRequest
          * and a RestResponse is returned
          * 
          */
-        Method handler;
+        RouteHandler handler;
         RestResponse response = null;
         AuthenticatedRestRequest authenticatedRequest;
         boolean requireAuth = !request.isLoginRequest();
@@ -241,12 +293,10 @@ public class Server {
         }
 
         // resolve route to get the handler method for this request
-        try {
-            handler = this.router.getRequestHandler(request);
-        } catch (RouteNotFoundException e) {
-            return new RestResponse(404);
-        } catch (MethodNotSupportedException e) {
-            return new RestResponse(405);
+        handler = this.router.getRequestHandler(request);
+        if (handler.getErrorResponse() != null) {
+            // unknown route or method
+            return handler.getErrorResponse();
         }
 
         // check request headers to authenticate the request
@@ -259,33 +309,27 @@ public class Server {
             return new RestResponse(400);
         }
 
+        // wait for a free slot if the handler has a concurrency limit
+        Semaphore routeSemaphore = this.routeSemaphores.get(handler.getName());
+        if (routeSemaphore != null) {
+            try {
+                routeSemaphore.acquire();
+            } catch (InterruptedException e) {
+                return new RestResponse(503);
+            }
+        }
+
         // invoke handler for this request and get response to write back to client
         try {
-            response = (RestResponse) handler.invoke(this.service, authenticatedRequest);
-        } catch (IllegalAccessException | IllegalArgumentException e) {
-            // something went wrong on the server side
+            response = handler.invoke(authenticatedRequest);
+        } catch (RuntimeException e) {
+            // something went wrong on the server side: handlers report
+            // errors with the client request through the response code
             e.printStackTrace();
             return new RestResponse(500);
-        } catch (InvocationTargetException e) {
-            // there's an error with the client request
-            try {
-                // InvocationTargetException is thrown if the method called via
-                // `invoke()` throws an exception; in order to get the original
-                // exception, use exception chaining, so the correct HTTP error
-                // can ultimately be written back to the client
-                if (e.getCause() instanceof Exception) {
-                    throw (Exception) e.getCause();
-                }
-            } catch (BadRequestException e1) {
-                return new RestResponse(400);
-            } catch (PermissionDeniedException e1) {
-                return new RestResponse(403);
-            } catch (ResourceNotFoundException e1) {
-                return new RestResponse(404);
-            } catch (InternalServerErrorException e1) {
-                return new RestResponse(500);
-            } catch (Exception e1) {
-                assert false; // never reached
+        } finally {
+            if (routeSemaphore != null) {
+                routeSemaphore.release();
             }
         }
         return response;
@@ -2,6 +2,8 @@ package services;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
 
 public class ServerConfig {
     private InetAddress serverAddr; // = Inet4Address.getLocalHost();
@@ -11,10 +13,38 @@ public class ServerConfig {
     private int multicastPort = 44444;
     private InetAddress registryHost; // = InetAddress.getLocalHost();
     private int registryPort = 7777;
-    private int sktTimeout = 100000;
+    private int sktTimeout = 100000; // in milliseconds; idle connections are closed after it
     private String storageLocation = "db.json";
     private long timeInBetweenRewards = 10; // in seconds
     private double authorRewardPercentage = 70.0;
+    private int reactorCount = 1; // number of selector threads serving client connections
+    private int maxRequestSize = 1024 * 1024; // in bytes, headers included
+    private long outputHighWatermark = 1024 * 1024; // in bytes, per connection
+    private long outputLowWatermark = 0; // in bytes, per connection
+    private long bufferPoolRetainedBytes = 32 * 1024 * 1024; // idle buffers kept by each buffer pool, in bytes
+    private int handlerThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private int handlerQueueDepth = 1024; // requests waiting for a handler thread
+    private long statsInterval = 0; // in seconds; 0 disables periodic statistics
+    private int compressionThreshold = 1024; // in bytes; smaller responses aren't compressed, -1 disables it
+    private long eventHeartbeatInterval = 15000; // in milliseconds; 0 disables push channel heartbeats
+    private long pushQueueLimit = 256 * 1024; // in bytes, per push channel; slower clients are dropped
+    private long sessionIdleTimeout = 30 * 60 * 1000; // in milliseconds; 0 disables it
+    private long sessionLifetime = 24 * 60 * 60 * 1000; // in milliseconds; 0 disables it, unless tokens are signed
+    private int maxSessionsPerUser = 8; // older sessions are ended past it; 0 disables it
+    private int maxSessions = 100000; // older sessions are ended past it; 0 disables it
+    private long sessionSweepInterval = 60 * 1000; // in milliseconds; 0 disables the sweep
+    // base64; if set, login issues signed tokens, accepted by all the servers sharing the key
+    private String tokenSigningKey = "";
+    // checking passwords is slow on purpose, so it gets threads of its own
+    private int passwordHashThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int passwordHashQueueDepth = 64; // logins waiting for a password hashing thread
+    private int passwordHashIterations = 210000; // PBKDF2 iterations for new password hashes
+    private int userListLimit = 1000; // users listed by GET /users at most, per page
+    private int postPageLimit = 50; // posts in a page of a feed or blog, by default and at most
+    private int commentPageLimit = 100; // comments in a page of a post's comments, by default and at most
+    private String handlerExecutionMode = "pooled"; // "pooled" or "virtual" (Java 21+)
+    // maximum number of concurrent invocations, by handler name
+    private Map<String, Integer> routeConcurrencyLimits = new HashMap<>();
 
     public ServerConfig() throws UnknownHostException {
         this.multicastAddr = InetAddress.getByName("239.255.32.32");
@@ -105,4 +135,204 @@ public class ServerConfig {
     public String getStorageLocation() {
         return this.storageLocation;
     }
+
+    public int getReactorCount() {
+        return this.reactorCount;
+    }
+
+    public void setReactorCount(int reactorCount) {
+        this.reactorCount = reactorCount;
+    }
+
+    public int getMaxRequestSize() {
+        return this.maxRequestSize;
+    }
+
+    public void setMaxRequestSize(int maxRequestSize) {
+        this.maxRequestSize = maxRequestSize;
+    }
+
+    public long getOutputHighWatermark() {
+        return this.outputHighWatermark;
+    }
+
+    public void setOutputHighWatermark(long outputHighWatermark) {
+        this.outputHighWatermark = outputHighWatermark;
+    }
+
+    public long getOutputLowWatermark() {
+        return this.outputLowWatermark;
+    }
+
+    public void setOutputLowWatermark(long outputLowWatermark) {
+        this.outputLowWatermark = outputLowWatermark;
+    }
+
+    public int getHandlerThreads() {
+        return this.handlerThreads;
+    }
+
+    public void setHandlerThreads(int handlerThreads) {
+        this.handlerThreads = handlerThreads;
+    }
+
+    public int getHandlerQueueDepth() {
+        return this.handlerQueueDepth;
+    }
+
+    public void setHandlerQueueDepth(int handlerQueueDepth) {
+        this.handlerQueueDepth = handlerQueueDepth;
+    }
+
+    public long getStatsInterval() {
+        return this.statsInterval;
+    }
+
+    public void setStatsInterval(long statsInterval) {
+        this.statsInterval = statsInterval;
+    }
+
+    public String getHandlerExecutionMode() {
+        return this.handlerExecutionMode;
+    }
+
+    public void setHandlerExecutionMode(String handlerExecutionMode) {
+        this.handlerExecutionMode = handlerExecutionMode;
+    }
+
+    public Map<String, Integer> getRouteConcurrencyLimits() {
+        return this.routeConcurrencyLimits;
+    }
+
+    public void setRouteConcurrencyLimits(Map<String, Integer> routeConcurrencyLimits) {
+        this.routeConcurrencyLimits = routeConcurrencyLimits;
+    }
+
+    public int getCompressionThreshold() {
+        return this.compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public long getPushQueueLimit() {
+        return this.pushQueueLimit;
+    }
+
+    public void setPushQueueLimit(long pushQueueLimit) {
+        this.pushQueueLimit = pushQueueLimit;
+    }
+
+    public long getEventHeartbeatInterval() {
+        return this.eventHeartbeatInterval;
+    }
+
+    public void setEventHeartbeatInterval(long eventHeartbeatInterval) {
+        this.eventHeartbeatInterval = eventHeartbeatInterval;
+    }
+
+    public long getSessionIdleTimeout() {
+        return this.sessionIdleTimeout;
+    }
+
+    public void setSessionIdleTimeout(long sessionIdleTimeout) {
+        this.sessionIdleTimeout = sessionIdleTimeout;
+    }
+
+    public long getSessionLifetime() {
+        return this.sessionLifetime;
+    }
+
+    public void setSessionLifetime(long sessionLifetime) {
+        this.sessionLifetime = sessionLifetime;
+    }
+
+    public int getMaxSessionsPerUser() {
+        return this.maxSessionsPerUser;
+    }
+
+    public void setMaxSessionsPerUser(int maxSessionsPerUser) {
+        this.maxSessionsPerUser = maxSessionsPerUser;
+    }
+
+    public int getMaxSessions() {
+        return this.maxSessions;
+    }
+
+    public void setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+    public long getSessionSweepInterval() {
+        return this.sessionSweepInterval;
+    }
+
+    public void setSessionSweepInterval(long sessionSweepInterval) {
+        this.sessionSweepInterval = sessionSweepInterval;
+    }
+
+    public String getTokenSigningKey() {
+        return this.tokenSigningKey;
+    }
+
+    public void setTokenSigningKey(String tokenSigningKey) {
+        this.tokenSigningKey = tokenSigningKey;
+    }
+
+    public int getPasswordHashThreads() {
+        return this.passwordHashThreads;
+    }
+
+    public void setPasswordHashThreads(int passwordHashThreads) {
+        this.passwordHashThreads = passwordHashThreads;
+    }
+
+    public int getPasswordHashQueueDepth() {
+        return this.passwordHashQueueDepth;
+    }
+
+    public void setPasswordHashQueueDepth(int passwordHashQueueDepth) {
+        this.passwordHashQueueDepth = passwordHashQueueDepth;
+    }
+
+    public int getPasswordHashIterations() {
+        return this.passwordHashIterations;
+    }
+
+    public void setPasswordHashIterations(int passwordHashIterations) {
+        this.passwordHashIterations = passwordHashIterations;
+    }
+
+    public int getUserListLimit() {
+        return this.userListLimit;
+    }
+
+    public void setUserListLimit(int userListLimit) {
+        this.userListLimit = userListLimit;
+    }
+
+    public int getPostPageLimit() {
+        return this.postPageLimit;
+    }
+
+    public void setPostPageLimit(int postPageLimit) {
+        this.postPageLimit = postPageLimit;
+    }
+
+    public int getCommentPageLimit() {
+        return this.commentPageLimit;
+    }
+
+    public void setCommentPageLimit(int commentPageLimit) {
+        this.commentPageLimit = commentPageLimit;
+    }
+
+    public long getBufferPoolRetainedBytes() {
+        return this.bufferPoolRetainedBytes;
+    }
+
+    public void setBufferPoolRetainedBytes(long bufferPoolRetainedBytes) {
+        this.bufferPoolRetainedBytes = bufferPoolRetainedBytes;
+    }
 }
@@ -1,88 +1,202 @@
 package services;
 
 import entities.Comment;
+import entities.PageCursor;
 import entities.Post;
 import entities.Reaction;
 import entities.User;
-import exceptions.BadRequestException;
-import exceptions.InternalServerErrorException;
-import exceptions.PermissionDeniedException;
-import exceptions.ResourceNotFoundException;
 import protocol.AuthenticatedRestRequest;
+import protocol.DeferredResponse;
+import protocol.EventStreamResponse;
+import protocol.WebSocketUpgradeResponse;
 import protocol.RestResponse;
 import services.DataStoreService.OperationStatus;
 import services.DataStoreService.OperationStatus.Status;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import auth.AuthenticationToken;
 import auth.Password;
+import auth.PasswordHasher;
+import auth.SessionStore;
+import auth.TokenSigner;
 
 public class SocialNetworkService {
+    /**
+     * Request handlers of the API: each of them takes the authenticated
+     * request and returns the response to send back, whose status code tells
+     * the client how the request went. Errors are reported through the status
+     * code as well, so that requests failing for expected reasons (unknown
+     * posts, missing permissions, bad input) cost no more than successful
+     * ones.
+     * 
+     */
     private final DataStoreService store;
+    private final SessionStore sessions;
+    // null unless signed tokens are enabled
+    private final TokenSigner tokenSigner;
+    private final PasswordHasher passwordHasher;
     private final FollowerNotificationService followerService;
     private final WalletConversionService walletService;
     private final ServerConfig config;
 
-    public SocialNetworkService(DataStoreService store, FollowerNotificationService followerService,
+    public SocialNetworkService(DataStoreService store, SessionStore sessions, TokenSigner tokenSigner,
+            PasswordHasher passwordHasher, FollowerNotificationService followerService,
             WalletConversionService walletService, ServerConfig config) {
         this.store = store;
+        this.sessions = sessions;
+        this.tokenSigner = tokenSigner;
+        this.passwordHasher = passwordHasher;
         this.followerService = followerService;
         this.walletService = walletService;
         this.config = config;
     }
 
-    public RestResponse loginHandler(AuthenticatedRestRequest request)
-            throws PermissionDeniedException, BadRequestException {
+    public RestResponse loginHandler(AuthenticatedRestRequest request) {
         String[] bodyTokens = request.getRequest().getBody().split("\n");
         if (bodyTokens.length != 2) {
             // request body is expected to have the username on the
             // first line and the password on the second line
-            throw new BadRequestException();
+            return new RestResponse(400);
         }
 
         String username = bodyTokens[0];
-        Password password = new Password(bodyTokens[1]);
+        String plaintextPassword = bodyTokens[1];
 
         User authenticatingUser = this.store.getUser(username);
 
-        if (authenticatingUser == null) {
-            throw new PermissionDeniedException();
-        }
-        if (authenticatingUser.getPassword().equals(password)) {
-            // correct password, create and return a
-            // new authentication token for this user
-            AuthenticationToken token = new AuthenticationToken();
-            this.store.setUserToken(authenticatingUser, token);
-            // client will use this new token to authenticate subsequent requests
-            return new RestResponse(200,
-                    token.getToken() + "\n" + // also send IP address and port of multicast group
-                            this.config.getMulticastAddr().toString() + "\n"
-                            + this.config.getMulticastPort());
-        }
+        // checking the password is slow on purpose, so it's done by the
+        // password hasher: this thread goes on handling other requests. The
+        // password of an unknown user is checked too, against one nobody
+        // has, so that how long the answer takes doesn't tell which
+        // usernames exist
+        Password password = authenticatingUser != null ? authenticatingUser.getPassword()
+                : this.passwordHasher.getDummyPassword();
+        return new DeferredResponse(this.passwordHasher.matches(password, plaintextPassword)
+                .thenApply(matches -> {
+                    if (!matches || authenticatingUser == null) {
+                        // unknown user or incorrect password
+                        return new RestResponse(403);
+                    }
+                    if (this.passwordHasher.needsRehash(password)) {
+                        // now that the plaintext is known, replace the outdated
+                        // hash; the login doesn't wait for it
+                        this.passwordHasher.hash(plaintextPassword).thenAccept(authenticatingUser::setPassword);
+                    }
+                    return this.startSession(authenticatingUser);
+                })
+                .exceptionally(e -> {
+                    if (e.getCause() instanceof RejectedExecutionException) {
+                        // too many logins at once
+                        return new RestResponse(503);
+                    }
+                    e.printStackTrace();
+                    return new RestResponse(500);
+                }));
+    }
 
-        // incorrect password
-        throw new PermissionDeniedException();
+    private RestResponse startSession(User user) {
+        /**
+         * Creates and returns a new authentication token for the given user,
+         * whose password has been checked.
+         * 
+         */
+        AuthenticationToken token;
+        if (this.tokenSigner != null) {
+            // no session to keep: the token itself proves who the user is
+            token = this.tokenSigner.sign(user.getUsername());
+        } else {
+            token = new AuthenticationToken();
+            this.sessions.add(token, user);
+        }
+        // client will use this new token to authenticate subsequent requests
+        return new RestResponse(200,
+                token.getToken() + "\n" + // also send IP address and port of multicast group
+                        this.config.getMulticastAddr().toString() + "\n"
+                        + this.config.getMulticastPort());
     }
 
-    public RestResponse logoutHandler(AuthenticatedRestRequest request) throws PermissionDeniedException {
+    public RestResponse logoutHandler(AuthenticatedRestRequest request) {
         String claimedUsername = request.getRequest().getBody().trim();
         AuthenticationToken token = new AuthenticationToken(
                 request.getRequest().getHeader("Authorization").substring("Bearer ".length()));
-        if (this.store.deleteUserToken(token, claimedUsername)) {
+        boolean loggedOut = this.tokenSigner != null && token.isSigned()
+                ? this.tokenSigner.revoke(token.getToken(), claimedUsername)
+                : this.sessions.remove(token, claimedUsername);
+        if (loggedOut) {
             return new RestResponse(204);
         }
-        throw new PermissionDeniedException();
+        return new RestResponse(403);
     }
 
     public RestResponse userListHandler(AuthenticatedRestRequest request) {
-        Set<User> users = this.store.getCompatibleUsers(request.getUser().getUsername());
-        String body = new Serializer<User[]>()
-                .serialize((User[]) ((users == null ? new HashSet<User>() : users).toArray(new User[0])));
-        return new RestResponse(200, body);
+        /**
+         * Returns the users having at least one tag in common with the user,
+         * in order of username; the `limit` query parameter sets how many of
+         * them are returned, never more than the configured maximum, and the
+         * page starts after the username in the `cursor` query parameter or
+         * skips the first `offset` users, if either is given (not both).
+         * 
+         * The cursor for the next page, if any, is sent in the X-Next-Cursor
+         * header.
+         * 
+         */
+        String after;
+        int offset;
+        int limit;
+        try {
+            after = request.getRequest().getQueryParameter("cursor");
+            offset = getIntQueryParameter(request, "offset", 0);
+            limit = Math.min(getIntQueryParameter(request, "limit", this.config.getUserListLimit()),
+                    this.config.getUserListLimit());
+        } catch (IllegalArgumentException e) {
+            return new RestResponse(400);
+        }
+        if (after != null && offset > 0) {
+            // a cursor already says where the page starts
+            return new RestResponse(400);
+        }
+        // one more user than asked for tells whether there's a next page
+        List<User> users = this.store.getCompatibleUsers(request.getUser().getUsername(), after, offset,
+                limit + 1);
+        if (users == null) {
+            users = new ArrayList<User>();
+        }
+        String nextCursor = null;
+        if (users.size() > limit) {
+            users = users.subList(0, limit);
+            nextCursor = limit > 0 ? users.get(limit - 1).getUsername() : null;
+        }
+        String body = new Serializer<User[]>().serialize(users.toArray(new User[0]));
+        return getPageResponse(body, nextCursor);
+    }
+
+    private static int getIntQueryParameter(AuthenticatedRestRequest request, String name, int defaultValue) {
+        /**
+         * Returns the value of the given query parameter, which must be a
+         * non-negative integer, or the default value if it's missing; throws
+         * IllegalArgumentException if the value isn't valid.
+         * 
+         */
+        String value = request.getRequest().getQueryParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        int parsed = Integer.parseInt(value);
+        if (parsed < 0) {
+            throw new IllegalArgumentException();
+        }
+        return parsed;
     }
 
     public RestResponse followingListHandler(AuthenticatedRestRequest request) {
@@ -92,51 +206,169 @@ public class SocialNetworkService {
         return new RestResponse(200, body);
     }
 
-    public RestResponse followUserHandler(AuthenticatedRestRequest request)
-            throws ResourceNotFoundException, PermissionDeniedException {
+    public RestResponse followerListHandler(AuthenticatedRestRequest request) {
+        /**
+         * Returns the list of followers of the user; if the request asks to
+         * upgrade the connection to a WebSocket, the list is sent as the first
+         * message through it, and each time it changes from then on.
+         * 
+         */
+        String username = request.getUser().getUsername();
+        String upgrade = request.getRequest().getHeader("Upgrade");
+        if (upgrade == null) {
+            Set<User> followers = this.followerService.getFollowerList(username);
+            return new RestResponse(200, new Serializer<User[]>().serialize(followers.toArray(new User[0])));
+        }
+
+        String webSocketKey = request.getRequest().getHeader("Sec-WebSocket-Key");
+        if (!upgrade.equalsIgnoreCase("websocket") || webSocketKey == null
+                || !"13".equals(request.getRequest().getHeader("Sec-WebSocket-Version"))) {
+            return new RestResponse(400);
+        }
+        // the list is only read once the connection is subscribed to its
+        // updates, or one made in between would never be sent
+        return new WebSocketUpgradeResponse(username, webSocketKey, () -> new EventHub.Event(
+                EventHub.FOLLOWERS_UPDATE, this.followerService.getFollowerList(username)).asWebSocketFrame());
+    }
+
+    public RestResponse followUserHandler(AuthenticatedRestRequest request) {
         String toFollow = request.getRequest().getBody().trim();
         String newFollower = request.getUser().getUsername();
 
         if (toFollow.equals(newFollower)) {
             // cannot follow yourself
-            throw new PermissionDeniedException();
+            return new RestResponse(403);
         }
         synchronized (this) {
             if (this.store.addFollower(toFollow, newFollower)) {
-                // send RMI notification to user who just acquired a follower
+                // push the updated follower list to the user who just acquired a follower
                 this.followerService.notifyUser(toFollow);
                 return new RestResponse(204);
             }
         }
-        throw new ResourceNotFoundException();
+        return new RestResponse(404);
     }
 
-    public RestResponse unfollowUserHandler(AuthenticatedRestRequest request) throws ResourceNotFoundException {
+    public RestResponse unfollowUserHandler(AuthenticatedRestRequest request) {
         String target = request.getRequest().getBody().trim();
         synchronized (this) {
             if (this.store.removeFollower(target, request.getUser().getUsername())) {
-                // send RMI notification to user who just lost a follower
+                // push the updated follower list to the user who just lost a follower
                 this.followerService.notifyUser(target);
                 return new RestResponse(204);
             }
         }
-        throw new ResourceNotFoundException();
+        return new RestResponse(404);
     }
 
     public RestResponse listMyPostsHandler(AuthenticatedRestRequest request) {
-        String body = new Serializer<Post[]>()
-                .serialize((Post[]) this.store.getUserPosts(request.getUser().getUsername()).toArray(new Post[0]));
-        return new RestResponse(200, body);
+        NavigableSet<Post> posts = this.store.getUserPosts(request.getUser().getUsername());
+        return this.getPostPage(request,
+                (after, count) -> getPage(posts == null ? null : posts.descendingSet(), after, count));
     }
 
     public RestResponse showFeedHandler(AuthenticatedRestRequest request) {
-        Set<Post> feed = this.store.getUserFeed(request.getUser().getUsername());
-        String body = new Serializer<Post[]>()
-                .serialize((Post[]) ((feed == null ? new HashSet<Post>() : feed).toArray(new Post[0])));
-        return new RestResponse(200, body);
+        String username = request.getUser().getUsername();
+        return this.getPostPage(request, (after, count) -> this.store.getUserFeed(username, after, count));
+    }
+
+    private RestResponse getPostPage(AuthenticatedRestRequest request, BiFunction<Post, Integer, List<Post>> posts) {
+        /**
+         * Returns a page of posts, newest first: the ones following the post
+         * the `cursor` query parameter points to (from the first one if it's
+         * missing), `limit` of them at most, never more than the configured
+         * maximum. The cursor for the next page, if any, is sent in the
+         * X-Next-Cursor header.
+         * 
+         * `posts` returns the posts following the given one in that order
+         * (from the first one if null), as many as the given count at most, or
+         * null if there are none to list.
+         * 
+         * If the `summary` query parameter is "true", the posts are sent
+         * without their comments.
+         * 
+         */
+        PageCursor cursor;
+        int limit;
+        boolean summary;
+        try {
+            cursor = getCursorQueryParameter(request);
+            limit = Math.min(getIntQueryParameter(request, "limit", this.config.getPostPageLimit()),
+                    this.config.getPostPageLimit());
+            summary = getBooleanQueryParameter(request, "summary");
+        } catch (IllegalArgumentException e) {
+            return new RestResponse(400);
+        }
+        if (limit == 0) {
+            return new RestResponse(400);
+        }
+        // one more post than asked for tells whether there's a next page
+        List<Post> page = posts.apply(cursor == null ? null : Post.keyOf(cursor), limit + 1);
+        if (page == null) {
+            page = new ArrayList<Post>();
+        }
+        String nextCursor = null;
+        if (page.size() > limit) {
+            page = page.subList(0, limit);
+            nextCursor = page.get(limit - 1).getCursor().toString();
+        }
+        Post[] data = page.toArray(new Post[0]);
+        String body = summary ? new Serializer<Post[]>().serialize(data, Post.Summary.class)
+                : new Serializer<Post[]>().serialize(data);
+        return getPageResponse(body, nextCursor);
+    }
+
+    private static <T> List<T> getPage(NavigableSet<T> items, T after, int count) {
+        /**
+         * Returns the items following `after` (from the first one if null),
+         * `count` of them at most; returns null if there are no items.
+         * 
+         */
+        if (items == null) {
+            return null;
+        }
+        List<T> ret = new ArrayList<>();
+        for (T item : after == null ? items : items.tailSet(after, false)) {
+            if (ret.size() == count) {
+                break;
+            }
+            ret.add(item);
+        }
+        return ret;
+    }
+
+    private static RestResponse getPageResponse(String body, String nextCursor) {
+        if (nextCursor == null) {
+            return new RestResponse(200, body);
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put("X-Next-Cursor", nextCursor);
+        return new RestResponse(200, headers, body);
+    }
+
+    private static PageCursor getCursorQueryParameter(AuthenticatedRestRequest request) {
+        String value = request.getRequest().getQueryParameter("cursor");
+        return value == null ? null : PageCursor.parse(value);
+    }
+
+    private static boolean getBooleanQueryParameter(AuthenticatedRestRequest request, String name) {
+        /**
+         * Returns the value of the given query parameter, which must be
+         * either "true" or "false", or false if it's missing; throws
+         * IllegalArgumentException if the value isn't valid.
+         * 
+         */
+        String value = request.getRequest().getQueryParameter(name);
+        if (value == null || value.equals("false")) {
+            return false;
+        }
+        if (value.equals("true")) {
+            return true;
+        }
+        throw new IllegalArgumentException();
     }
 
-    public RestResponse createPostHandler(AuthenticatedRestRequest request) throws BadRequestException {
+    public RestResponse createPostHandler(AuthenticatedRestRequest request) {
         String postData = request.getRequest().getBody();
         Post post;
 
@@ -144,7 +376,7 @@ public class SocialNetworkService {
             post = new Serializer<Post>().parse(postData, Post.class);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
-            throw new BadRequestException();
+            return new RestResponse(400);
         }
         post.setAuthor(request.getUser().getUsername());
         this.store.addPost(request.getUser().getUsername(), post);
@@ -152,10 +384,10 @@ public class SocialNetworkService {
         return new RestResponse(201, new Serializer<Post>().serialize(post));
     }
 
-    public RestResponse showPostHandler(AuthenticatedRestRequest request) throws ResourceNotFoundException {
+    public RestResponse showPostHandler(AuthenticatedRestRequest request) {
         Post post = this.store.getPost(request.getRequest().getPathParameter());
         if (post == null) {
-            throw new ResourceNotFoundException();
+            return new RestResponse(404);
         }
         String responseBody = new Serializer<Post>().serialize(post);
 
@@ -163,28 +395,26 @@ public class SocialNetworkService {
 
     }
 
-    public RestResponse deletePostHandler(AuthenticatedRestRequest request)
-            throws ResourceNotFoundException, PermissionDeniedException {
+    public RestResponse deletePostHandler(AuthenticatedRestRequest request) {
         OperationStatus outcome = this.store.deletePost(request.getRequest().getPathParameter(),
                 request.getUser().getUsername());
         if (outcome.status == Status.ILLEGAL_OPERATION) {
-            throw new PermissionDeniedException();
+            return new RestResponse(403);
         } else if (outcome.status == Status.NOT_FOUND) {
-            throw new ResourceNotFoundException();
+            return new RestResponse(404);
         }
 
         return new RestResponse(204);
     }
 
-    public RestResponse rewinPostHandler(AuthenticatedRestRequest request)
-            throws ResourceNotFoundException, PermissionDeniedException {
+    public RestResponse rewinPostHandler(AuthenticatedRestRequest request) {
         Post post = this.store.getPost(request.getRequest().getPathParameter());
         if (post == null) {
-            throw new ResourceNotFoundException();
+            return new RestResponse(404);
         }
-        if (post.getAuthor() == request.getUser().getUsername()) {
+        if (post.getAuthor().equals(request.getUser().getUsername())) {
             // can't rewin your own posts
-            throw new PermissionDeniedException();
+            return new RestResponse(403);
         }
 
         Post rewinPost = new Post(request.getUser().getUsername(), post);
@@ -192,14 +422,13 @@ public class SocialNetworkService {
         return new RestResponse(200, new Serializer<Post>().serialize(rewinPost));
     }
 
-    public RestResponse ratePostHandler(AuthenticatedRestRequest request)
-            throws BadRequestException, ResourceNotFoundException, PermissionDeniedException {
+    public RestResponse ratePostHandler(AuthenticatedRestRequest request) {
         Reaction reaction;
         try {
             reaction = new Serializer<Reaction>().parse(request.getRequest().getBody(), Reaction.class);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
-            throw new BadRequestException();
+            return new RestResponse(400);
         }
         reaction.setUser(request.getUser().getUsername());
 
@@ -207,45 +436,80 @@ public class SocialNetworkService {
         if (outcome.status == Status.OK) {
             return new RestResponse(200);
         } else if (outcome.status == Status.NOT_FOUND) {
-            throw new ResourceNotFoundException();
+            return new RestResponse(404);
         } else {
-            throw new PermissionDeniedException();
+            return new RestResponse(403);
         }
     }
 
-    public RestResponse createCommentHandler(AuthenticatedRestRequest request)
-            throws BadRequestException, ResourceNotFoundException, PermissionDeniedException {
+    public RestResponse createCommentHandler(AuthenticatedRestRequest request) {
         Comment comment;
         try {
             comment = new Serializer<Comment>().parse(request.getRequest().getBody(), Comment.class);
         } catch (JsonProcessingException e) {
-            throw new BadRequestException();
+            return new RestResponse(400);
         }
         comment.setUser(request.getUser().getUsername());
         OperationStatus outcome = this.store.addPostComment(request.getRequest().getPathParameter(), comment);
         if (outcome.status == Status.NOT_FOUND) {
-            throw new ResourceNotFoundException();
+            return new RestResponse(404);
         } else if (outcome.status == Status.ILLEGAL_OPERATION) {
-            throw new PermissionDeniedException();
+            return new RestResponse(403);
         }
 
         return new RestResponse(201, new Serializer<Comment>().serialize(comment));
     }
 
+    public RestResponse listCommentsHandler(AuthenticatedRestRequest request) {
+        /**
+         * Returns a page of the comments to a post, oldest first; `cursor`
+         * and `limit` work as for pages of posts.
+         * 
+         */
+        Post post = this.store.getPost(request.getRequest().getPathParameter());
+        if (post == null) {
+            return new RestResponse(404);
+        }
+        PageCursor cursor;
+        int limit;
+        try {
+            cursor = getCursorQueryParameter(request);
+            limit = Math.min(getIntQueryParameter(request, "limit", this.config.getCommentPageLimit()),
+                    this.config.getCommentPageLimit());
+        } catch (IllegalArgumentException e) {
+            return new RestResponse(400);
+        }
+        if (limit == 0) {
+            return new RestResponse(400);
+        }
+        List<Comment> page = getPage(post.getComments(), cursor == null ? null : Comment.keyOf(cursor), limit + 1);
+        String nextCursor = null;
+        if (page.size() > limit) {
+            page = page.subList(0, limit);
+            nextCursor = page.get(limit - 1).getCursor().toString();
+        }
+        return getPageResponse(new Serializer<Comment[]>().serialize(page.toArray(new Comment[0])), nextCursor);
+    }
+
     public RestResponse showWalletHandler(AuthenticatedRestRequest request) {
         String body = new Serializer<Wallet>().serialize(this.store.getUserWallet(request.getUser().getUsername()));
         return new RestResponse(200, body);
     }
 
-    public RestResponse showWalletInBitcoinHandler(AuthenticatedRestRequest request)
-            throws InternalServerErrorException {
+    public RestResponse showWalletInBitcoinHandler(AuthenticatedRestRequest request) {
         Wallet wallet = this.store.getUserWallet(request.getUser().getUsername());
         double conversionValue = this.walletService.getConversionRate();
         if (conversionValue == 0.0) {
-            throw new InternalServerErrorException();
+            return new RestResponse(500);
         }
 
         String body = Double.toString(wallet.getBalance() * conversionValue);
         return new RestResponse(200, body);
     }
+
+    public RestResponse eventStreamHandler(AuthenticatedRestRequest request) {
+        // the connection is kept open by the server, which pushes the events
+        // concerning the user through it from now on
+        return new EventStreamResponse(request.getUser().getUsername());
+    }
 }
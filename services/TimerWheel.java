@@ -0,0 +1,71 @@
+package services;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+class TimerWheel<T> {
+    /**
+     * Hashed timer wheel: a circular array of slots, each one holding the
+     * items due within one tick.
+     * 
+     * Scheduling an item is O(1), and advancing the wheel only touches the
+     * items in the slots whose tick has elapsed, regardless of how many
+     * items are scheduled overall.
+     * 
+     * The wheel doesn't remember deadlines: when an item's slot comes up,
+     * it's handed to a callback that decides whether it's actually due, and
+     * may schedule it again otherwise. This makes it cheap to push deadlines
+     * back (e.g. on every bit of activity on a connection) without touching
+     * the wheel, and allows deadlines further away than one whole turn.
+     * 
+     * Not thread-safe: meant to be used by a single reactor thread.
+     * 
+     */
+    private final long tickMillis;
+    private final Deque<T>[] slots;
+    private long currentTick; // index of the last tick that was processed
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickMillis, long horizonMillis, long now) {
+        this.tickMillis = Math.max(tickMillis, 1);
+        int slotCount = (int) Math.min(horizonMillis / this.tickMillis + 2, 1 << 16);
+        this.slots = (Deque<T>[]) new Deque<?>[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            this.slots[i] = new ArrayDeque<>();
+        }
+        this.currentTick = now / this.tickMillis;
+    }
+
+    long getTickMillis() {
+        return this.tickMillis;
+    }
+
+    void schedule(T item, long deadline) {
+        // items are never put in a tick that was already processed, and
+        // deadlines beyond the last slot are clamped to it
+        long tick = Math.max(deadline / this.tickMillis, this.currentTick + 1);
+        tick = Math.min(tick, this.currentTick + this.slots.length - 1);
+        this.slots[(int) (tick % this.slots.length)].addLast(item);
+    }
+
+    void advance(long now, Consumer<T> onDue) {
+        /**
+         * Processes every tick elapsed up to `now`, handing each item whose
+         * slot came up to `onDue`; items scheduled by the callback itself
+         * always end up in a later tick.
+         * 
+         */
+        long targetTick = now / this.tickMillis;
+        // after a long pause (e.g. a GC) going round more than once is pointless
+        long firstTick = Math.max(this.currentTick + 1, targetTick - this.slots.length + 1);
+        for (long tick = firstTick; tick <= targetTick; tick++) {
+            this.currentTick = tick;
+            Deque<T> slot = this.slots[(int) (tick % this.slots.length)];
+            for (int n = slot.size(); n > 0; n--) {
+                onDue.accept(slot.pollFirst());
+            }
+        }
+        this.currentTick = Math.max(this.currentTick, targetTick);
+    }
+}
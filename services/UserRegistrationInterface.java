@@ -4,8 +4,6 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.Set;
 
-import exceptions.BadRequestException;
-import exceptions.PermissionDeniedException;
 import protocol.RestResponse;
 
 public interface UserRegistrationInterface extends Remote {
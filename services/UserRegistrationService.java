@@ -2,16 +2,21 @@ package services;
 
 import java.rmi.RemoteException;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 import auth.Password;
+import auth.PasswordHasher;
 import entities.User;
 import protocol.RestResponse;
 
 public class UserRegistrationService implements UserRegistrationInterface {
     private DataStoreService store;
+    private PasswordHasher passwordHasher;
 
-    public UserRegistrationService(DataStoreService store) {
+    public UserRegistrationService(DataStoreService store, PasswordHasher passwordHasher) {
         this.store = store;
+        this.passwordHasher = passwordHasher;
     }
 
     @Override
@@ -20,7 +25,18 @@ public class UserRegistrationService implements UserRegistrationInterface {
         if (username.trim().length() == 0 || password.length() == 0 || tags.size() > 5 || tags.size() == 0) {
             return new RestResponse(400);
         }
-        User newUser = this.store.registerUser(username, tags, new Password(password));
+        Password hashedPassword;
+        try {
+            // runs on an RMI thread, which can wait for the password hasher
+            hashedPassword = this.passwordHasher.hash(password).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                // too many passwords being hashed at once
+                return new RestResponse(503);
+            }
+            throw e;
+        }
+        User newUser = this.store.registerUser(username, tags, hashedPassword);
         if (newUser == null) {
             // username already taken
             return new RestResponse(403);
@@ -0,0 +1,75 @@
+package services;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class VirtualThreadExecutor implements Executor {
+    /**
+     * Executor that runs each task on a new virtual thread.
+     * 
+     * Virtual threads are cheap to create and to block, which suits handlers
+     * that spend most of their time waiting on RMI callbacks or remote HTTP
+     * services; concurrency is meant to be limited per route rather than by
+     * the number of threads.
+     * 
+     * Virtual threads are only available on Java 21+: the factory method is
+     * looked up reflectively so that the project still builds on older JDKs,
+     * where `isSupported()` returns false.
+     * 
+     */
+    private static final MethodHandle START_VIRTUAL_THREAD = lookupStartVirtualThread();
+
+    private final String name;
+    private final AtomicLong inFlightCount = new AtomicLong();
+
+    public VirtualThreadExecutor(String name) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+        this.name = name;
+    }
+
+    private static MethodHandle lookupStartVirtualThread() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Thread.class, "startVirtualThread",
+                    MethodType.methodType(Thread.class, Runnable.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    public static boolean isSupported() {
+        return START_VIRTUAL_THREAD != null;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Runnable trackedTask = () -> {
+            try {
+                task.run();
+            } finally {
+                this.inFlightCount.decrementAndGet();
+            }
+        };
+        this.inFlightCount.incrementAndGet();
+        try {
+            START_VIRTUAL_THREAD.invoke(trackedTask);
+        } catch (Throwable e) {
+            this.inFlightCount.decrementAndGet();
+            throw new RejectedExecutionException(e);
+        }
+    }
+
+    public long getInFlightCount() {
+        return this.inFlightCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.name + ": in-flight=" + this.getInFlightCount();
+    }
+}